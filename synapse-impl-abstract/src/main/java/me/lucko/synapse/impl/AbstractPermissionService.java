@@ -25,39 +25,97 @@
 
 package me.lucko.synapse.impl;
 
+import me.lucko.synapse.context.Context;
+import me.lucko.synapse.context.ContextSet;
 import me.lucko.synapse.permission.PermissionService;
 import me.lucko.synapse.permission.membership.GroupMembership;
+import me.lucko.synapse.permission.node.PermissionKey;
 import me.lucko.synapse.permission.node.PermissionNode;
 import me.lucko.synapse.permission.property.Property;
 import me.lucko.synapse.permission.property.PropertyBuilder;
+import me.lucko.synapse.permission.property.PropertyQueryable;
 import me.lucko.synapse.permission.property.PropertyScope;
 import me.lucko.synapse.permission.subject.Group;
+import me.lucko.synapse.permission.subject.MutationBatch;
 import me.lucko.synapse.permission.subject.SubjectType;
 import me.lucko.synapse.permission.subject.User;
 import me.lucko.synapse.util.FutureAction;
 import me.lucko.synapse.util.FutureResult;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.MapMaker;
+
+import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Provides an abstract implementation of {@link PermissionService}.
  *
+ * <p>The collections returned by the {@code userGet*} and {@code groupGet*}
+ * methods are cached and handed directly to callers until the subject is
+ * next invalidated, so implementations must return collections they will not
+ * go on to modify.</p>
+ *
+ * <p>Prefixes, suffixes and metadata values are cached in the same way, so
+ * implementations must invalidate subjects whose meta is changed without
+ * going through the service.</p>
+ *
  * @param <U> the user type used by the implementation
  * @param <G> the group type used by the implementation
  */
 public abstract class AbstractPermissionService<U, G> implements PermissionService {
+    private final Users users = new UsersImpl();
+    private final Groups groups = new GroupsImpl();
+
+    // wrappers reference the backend object, so can't be held in a weak keyed
+    // map without also being weakly/softly referenced themselves
+    private final ConcurrentMap<U, UserImpl> userWrappers = CacheBuilder.newBuilder().weakKeys().softValues().<U, UserImpl>build().asMap();
+    private final ConcurrentMap<G, GroupImpl> groupWrappers = CacheBuilder.newBuilder().weakKeys().softValues().<G, GroupImpl>build().asMap();
+
+    private final ConcurrentMap<U, SubjectCache> userCaches = new MapMaker().weakKeys().makeMap();
+    private final ConcurrentMap<G, SubjectCache> groupCaches = new MapMaker().weakKeys().makeMap();
+
+    // loads which are currently in progress, shared between concurrent callers
+    private final ConcurrentMap<UUID, CompletableFuture<U>> userLoads = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<G>> groupLoads = new ConcurrentHashMap<>();
+
+    // invalidates subjects when their temporary permissions or memberships expire.
+    // only the earliest pending expiry of each subject is scheduled; the next is
+    // scheduled when the subjects cache is created again after the invalidation
+    private final ExpiryScheduler expiryScheduler = new ExpiryScheduler(1, TimeUnit.SECONDS);
+    private final ConcurrentMap<U, Instant> userExpiries = new MapMaker().weakKeys().makeMap();
+    private final ConcurrentMap<G, Instant> groupExpiries = new MapMaker().weakKeys().makeMap();
+
+    private final AudienceIndex audiences = new AudienceIndex(player -> this.users.get(player));
+
+    private final InheritanceGraph<G> inheritance = new InheritanceGraph<>(
+            this::groupGetName,
+            group -> getGroupGroups(group, getGroupCache(group)),
+            this::unwrapGroup
+    );
 
     protected abstract @NonNull U getUser(@NonNull Player player);
     protected abstract @Nullable U getUser(@NonNull UUID uniqueId);
@@ -75,6 +133,7 @@ public abstract class AbstractPermissionService<U, G> implements PermissionServi
     protected abstract @Nullable String userGetPrefix(@NonNull U user);
     protected abstract @Nullable String userGetSuffix(@NonNull U user);
     protected abstract @Nullable String userGetMetadata(@NonNull U user, @NonNull String key);
+    protected abstract @NonNull Map<String, String> userGetAllMetadata(@NonNull U user);
     protected abstract @NonNull CompletableFuture<Void> userSetPermission(@NonNull U user, @NonNull String permission, @NonNull PropertyExtractor properties);
     protected abstract @NonNull CompletableFuture<Void> userUnsetPermission(@NonNull U user, @NonNull String permission, @NonNull PropertyExtractor properties);
     protected abstract @NonNull CompletableFuture<Void> userAddGroup(@NonNull U user, @NonNull String groupName, @NonNull PropertyExtractor properties);
@@ -91,6 +150,7 @@ public abstract class AbstractPermissionService<U, G> implements PermissionServi
     protected abstract @Nullable String groupGetPrefix(@NonNull G group);
     protected abstract @Nullable String groupGetSuffix(@NonNull G group);
     protected abstract @Nullable String groupGetMetadata(@NonNull G group, @NonNull String key);
+    protected abstract @NonNull Map<String, String> groupGetAllMetadata(@NonNull G group);
     protected abstract @NonNull CompletableFuture<Void> groupSetPermission(@NonNull G group, @NonNull String permission, @NonNull PropertyExtractor properties);
     protected abstract @NonNull CompletableFuture<Void> groupUnsetPermission(@NonNull G group, @NonNull String permission, @NonNull PropertyExtractor properties);
     protected abstract @NonNull CompletableFuture<Void> groupAddGroup(@NonNull G group, @NonNull String groupName, @NonNull PropertyExtractor properties);
@@ -99,22 +159,795 @@ public abstract class AbstractPermissionService<U, G> implements PermissionServi
     protected abstract @NonNull CompletableFuture<Void> groupSetSuffix(@NonNull G group, @Nullable String suffix, @NonNull PropertyExtractor properties);
     protected abstract @NonNull CompletableFuture<Void> groupSetMetadata(@NonNull G group, @NonNull String key, @Nullable String value, @NonNull PropertyExtractor properties);
 
+    /**
+     * Gets the earliest time after now at which one of the users permissions
+     * or group memberships expires.
+     *
+     * <p>This is called each time the cache for the user is created, and the
+     * user is invalidated when the time is reached. The default
+     * implementation scans the users permission and membership snapshots.
+     * Implementations which answer checks themselves (see
+     * {@link #resolvePermissionsLocally()}) should also include the entries
+     * inherited from the users groups, and should avoid building nodes if
+     * the raw data is available.</p>
+     *
+     * @param user the user
+     * @return the next expiry, or null if nothing expires
+     */
+    protected @Nullable Instant userGetNextExpiry(@NonNull U user) {
+        SubjectCache cache = getUserCache(user);
+        return getNextExpiry(getUserGroups(user, cache), getNextExpiry(getUserPermissions(user, cache), null));
+    }
+
+    /**
+     * Gets the earliest time after now at which one of the groups
+     * permissions or group memberships expires.
+     *
+     * @param group the group
+     * @return the next expiry, or null if nothing expires
+     * @see #userGetNextExpiry(Object)
+     */
+    protected @Nullable Instant groupGetNextExpiry(@NonNull G group) {
+        SubjectCache cache = getGroupCache(group);
+        return getNextExpiry(getGroupGroups(group, cache), getNextExpiry(getGroupPermissions(group, cache), null));
+    }
+
+    protected @NonNull CompletableFuture<Map<UUID, U>> loadUsers(@NonNull Collection<UUID> uniqueIds) {
+        Map<UUID, CompletableFuture<U>> futures = new HashMap<>();
+        for (UUID uniqueId : uniqueIds) {
+            // a user which fails to load is omitted, rather than failing the lot
+            futures.computeIfAbsent(uniqueId, id -> loadUserShared(id).exceptionally(e -> null));
+        }
+        return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).thenApply(x -> {
+            Map<UUID, U> users = new HashMap<>();
+            for (Map.Entry<UUID, CompletableFuture<U>> entry : futures.entrySet()) {
+                U user = entry.getValue().join();
+                if (user != null) {
+                    users.put(entry.getKey(), user);
+                }
+            }
+            return users;
+        });
+    }
+
+    protected @NonNull BitSet userCheckPermissions(@NonNull U user, @NonNull List<String> permissions) {
+        BitSet results = new BitSet(permissions.size());
+        for (int i = 0; i < permissions.size(); i++) {
+            if (userCheckPermission(user, permissions.get(i))) {
+                results.set(i);
+            }
+        }
+        return results;
+    }
+
+    protected @NonNull BitSet groupCheckPermissions(@NonNull G group, @NonNull List<String> permissions) {
+        BitSet results = new BitSet(permissions.size());
+        for (int i = 0; i < permissions.size(); i++) {
+            if (groupCheckPermission(group, permissions.get(i))) {
+                results.set(i);
+            }
+        }
+        return results;
+    }
+
+    protected @NonNull Map<String, String> userGetMetadata(@NonNull U user, @NonNull Collection<String> keys) {
+        Map<String, String> values = new HashMap<>();
+        for (String key : keys) {
+            String value = userGetMetadata(user, key);
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+
+    protected @NonNull Map<String, String> groupGetMetadata(@NonNull G group, @NonNull Collection<String> keys) {
+        Map<String, String> values = new HashMap<>();
+        for (String key : keys) {
+            String value = groupGetMetadata(group, key);
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Checks a permission for the user, as if they were in the given contexts.
+     *
+     * <p>By default, the check is resolved by the service against the nodes
+     * returned by {@link #userGetPermissions(Object)}, as described in
+     * {@link #resolvePermissionsLocally()}. Implementations which are able to
+     * evaluate checks in other contexts themselves should override this.</p>
+     *
+     * @param user the user
+     * @param permission the permission
+     * @param contexts the contexts
+     * @return the result of the check
+     */
+    protected boolean userCheckPermission(@NonNull U user, @NonNull String permission, @NonNull ContextSet contexts) {
+        return getUserResolver(user, getUserCache(user), contexts).check(permission);
+    }
+
+    /**
+     * Checks a permission for the group, as if it were in the given contexts.
+     *
+     * <p>By default, the check is resolved by the service against the nodes
+     * returned by {@link #groupGetPermissions(Object)}, as described in
+     * {@link #resolvePermissionsLocally()}. Implementations which are able to
+     * evaluate checks in other contexts themselves should override this.</p>
+     *
+     * @param group the group
+     * @param permission the permission
+     * @param contexts the contexts
+     * @return the result of the check
+     */
+    protected boolean groupCheckPermission(@NonNull G group, @NonNull String permission, @NonNull ContextSet contexts) {
+        return getGroupResolver(group, getGroupCache(group), contexts).check(permission);
+    }
+
+    protected @NonNull CompletableFuture<Void> userApplyBatch(@NonNull U user, @NonNull List<SubjectMutation> mutations) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[mutations.size()];
+        for (int i = 0; i < mutations.size(); i++) {
+            SubjectMutation mutation = mutations.get(i);
+            String target = mutation.getTarget();
+            String value = mutation.getValue();
+            PropertyExtractor props = mutation.getProperties();
+            switch (mutation.getType()) {
+                case SET_PERMISSION:
+                    futures[i] = userSetPermission(user, target, props);
+                    break;
+                case UNSET_PERMISSION:
+                    futures[i] = userUnsetPermission(user, target, props);
+                    break;
+                case ADD_GROUP:
+                    futures[i] = userAddGroup(user, target, props);
+                    break;
+                case REMOVE_GROUP:
+                    futures[i] = userRemoveGroup(user, target, props);
+                    break;
+                case SET_PREFIX:
+                    futures[i] = userSetPrefix(user, value, props);
+                    break;
+                case SET_SUFFIX:
+                    futures[i] = userSetSuffix(user, value, props);
+                    break;
+                case SET_METADATA:
+                    futures[i] = userSetMetadata(user, target, value, props);
+                    break;
+                default:
+                    throw new AssertionError("unknown mutation type: " + mutation.getType());
+            }
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    protected @NonNull CompletableFuture<Void> groupApplyBatch(@NonNull G group, @NonNull List<SubjectMutation> mutations) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[mutations.size()];
+        for (int i = 0; i < mutations.size(); i++) {
+            SubjectMutation mutation = mutations.get(i);
+            String target = mutation.getTarget();
+            String value = mutation.getValue();
+            PropertyExtractor props = mutation.getProperties();
+            switch (mutation.getType()) {
+                case SET_PERMISSION:
+                    futures[i] = groupSetPermission(group, target, props);
+                    break;
+                case UNSET_PERMISSION:
+                    futures[i] = groupUnsetPermission(group, target, props);
+                    break;
+                case ADD_GROUP:
+                    futures[i] = groupAddGroup(group, target, props);
+                    break;
+                case REMOVE_GROUP:
+                    futures[i] = groupRemoveGroup(group, target, props);
+                    break;
+                case SET_PREFIX:
+                    futures[i] = groupSetPrefix(group, value, props);
+                    break;
+                case SET_SUFFIX:
+                    futures[i] = groupSetSuffix(group, value, props);
+                    break;
+                case SET_METADATA:
+                    futures[i] = groupSetMetadata(group, target, value, props);
+                    break;
+                default:
+                    throw new AssertionError("unknown mutation type: " + mutation.getType());
+            }
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * Gets if permission checks should be resolved by the service instead of
+     * being delegated to {@link #userCheckPermission(Object, String)} and
+     * {@link #groupCheckPermission(Object, String)}.
+     *
+     * <p>When enabled, checks are resolved against the nodes returned by
+     * {@link #userGetPermissions(Object)} and {@link #groupGetPermissions(Object)},
+     * following group memberships in the order they are returned. The nodes
+     * are compiled into a prefix tree, so the cost of a check does not depend
+     * on the number of nodes the subject has.</p>
+     *
+     * <p>Implementations should only opt in if the wildcard and negation rules
+     * applied by {@link PermissionResolver} are consistent with their own.</p>
+     *
+     * @return true to resolve permission checks locally
+     */
+    protected boolean resolvePermissionsLocally() {
+        return false;
+    }
+
+    /**
+     * Invalidates any cached data held for the given user.
+     *
+     * <p>Implementations should call this method when the user is modified
+     * without going through the service, or when external state that affects
+     * the outcome of a permission check (e.g. the players world) changes.</p>
+     *
+     * @param user the user
+     */
+    protected void invalidateUser(@NonNull U user) {
+        this.userCaches.remove(user);
+
+        UserImpl wrapper = this.userWrappers.get(user);
+        if (wrapper != null) {
+            this.audiences.invalidate(wrapper.uniqueId);
+        } else {
+            // can't tell which player the user belongs to
+            this.audiences.invalidateAll();
+        }
+    }
+
+    /**
+     * Invalidates any cached data held for the user with the given unique id.
+     *
+     * <p>Implementations should call this method when a player joins.</p>
+     *
+     * @param uniqueId the unique id of the user
+     */
+    protected void invalidateUser(@NonNull UUID uniqueId) {
+        for (UserImpl wrapper : this.userWrappers.values()) {
+            if (wrapper.uniqueId.equals(uniqueId)) {
+                this.userCaches.remove(wrapper.user);
+            }
+        }
+        this.audiences.invalidate(uniqueId);
+    }
+
+    /**
+     * Invalidates any cached data held for the given group, including its
+     * inheritance.
+     *
+     * <p>Implementations should call this method when the groups memberships
+     * are changed without going through the service, or the group is removed
+     * or renamed. Other changes only need
+     * {@link #invalidateGroupData(Object)}.</p>
+     *
+     * @param group the group
+     */
+    protected void invalidateGroup(@NonNull G group) {
+        // clear the subject caches before the inheritance graph, so closures
+        // can't be recomputed from a stale membership snapshot after it
+        invalidateGroupData(group);
+        this.inheritance.invalidate(group);
+    }
+
+    /**
+     * Invalidates the cached data held for the given group, without
+     * recomputing its inheritance.
+     *
+     * <p>Group data is inherited by users and other groups, so this also
+     * invalidates data cached for every subject which inherits from the
+     * group, in any world.</p>
+     *
+     * @param group the group
+     */
+    protected void invalidateGroupData(@NonNull G group) {
+        this.groupCaches.remove(group);
+        this.groupCaches.keySet().removeIf(subject -> this.inheritance.inheritsFrom(subject, group));
+        this.userCaches.entrySet().removeIf(entry -> {
+            if (!this.inheritance.inheritsFrom(getUserGroups(entry.getKey(), entry.getValue()), group)) {
+                return false;
+            }
+            UserImpl wrapper = this.userWrappers.get(entry.getKey());
+            if (wrapper != null) {
+                this.audiences.invalidate(wrapper.uniqueId);
+            } else {
+                // can't tell which player the user belongs to
+                this.audiences.invalidateAll();
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Invalidates all cached data held by the service.
+     */
+    protected void invalidateAll() {
+        this.userCaches.clear();
+        this.groupCaches.clear();
+        this.inheritance.invalidateAll();
+        this.audiences.invalidateAll();
+    }
+
+    /**
+     * Discards the {@link User} instance and any cached data held for the
+     * user with the given unique id.
+     *
+     * <p>Implementations should call this method when a player quits.</p>
+     *
+     * @param uniqueId the unique id of the user
+     */
+    protected void unloadUser(@NonNull UUID uniqueId) {
+        this.userWrappers.values().removeIf(wrapper -> {
+            if (!wrapper.uniqueId.equals(uniqueId)) {
+                return false;
+            }
+            this.userCaches.remove(wrapper.user);
+            return true;
+        });
+        this.audiences.remove(uniqueId);
+    }
+
+    private CompletableFuture<U> loadUserShared(UUID uniqueId) {
+        return loadShared(this.userLoads, uniqueId, this::loadUser);
+    }
+
+    private CompletableFuture<G> loadGroupShared(String name) {
+        return loadShared(this.groupLoads, name.toLowerCase(Locale.ROOT), key -> loadGroup(name));
+    }
+
+    /**
+     * Starts a load, or joins one that is already in progress for the same key.
+     */
+    private static <K, T> CompletableFuture<T> loadShared(ConcurrentMap<K, CompletableFuture<T>> inProgress, K key, Function<K, CompletableFuture<T>> loadFunction) {
+        CompletableFuture<T> future = inProgress.get(key);
+        if (future != null) {
+            return future;
+        }
+
+        CompletableFuture<T> promise = new CompletableFuture<>();
+        future = inProgress.putIfAbsent(key, promise);
+        if (future != null) {
+            return future;
+        }
+
+        try {
+            loadFunction.apply(key).whenComplete((result, ex) -> {
+                // remove before completing, so callbacks that load again start afresh
+                inProgress.remove(key, promise);
+                if (ex != null) {
+                    promise.completeExceptionally(ex);
+                } else {
+                    promise.complete(result);
+                }
+            });
+        } catch (Throwable e) {
+            inProgress.remove(key, promise);
+            promise.completeExceptionally(e);
+        }
+        return promise;
+    }
+
+    /**
+     * Shuts down the service, stopping any background tasks it started.
+     */
+    public void shutdown() {
+        this.expiryScheduler.shutdown();
+    }
+
+    private UserImpl getUserWrapper(UUID uniqueId, U user) {
+        UserImpl wrapper = this.userWrappers.get(user);
+        if (wrapper == null) {
+            wrapper = this.userWrappers.computeIfAbsent(user, u -> new UserImpl(uniqueId, u));
+        }
+        return wrapper;
+    }
+
+    private GroupImpl getGroupWrapper(G group) {
+        GroupImpl wrapper = this.groupWrappers.get(group);
+        if (wrapper == null) {
+            wrapper = this.groupWrappers.computeIfAbsent(group, GroupImpl::new);
+        }
+        return wrapper;
+    }
+
+    private SubjectCache getUserCache(U user) {
+        SubjectCache cache = this.userCaches.get(user);
+        if (cache == null) {
+            SubjectCache created = new SubjectCache();
+            cache = this.userCaches.putIfAbsent(user, created);
+            if (cache == null) {
+                cache = created;
+                // every cached result lives in the cache, so schedule as it is
+                // created, whether or not checks are resolved locally
+                scheduleUserExpiry(user, userGetNextExpiry(user));
+            }
+        }
+        return cache;
+    }
+
+    private SubjectCache getGroupCache(G group) {
+        SubjectCache cache = this.groupCaches.get(group);
+        if (cache == null) {
+            SubjectCache created = new SubjectCache();
+            cache = this.groupCaches.putIfAbsent(group, created);
+            if (cache == null) {
+                cache = created;
+                scheduleGroupExpiry(group, groupGetNextExpiry(group));
+            }
+        }
+        return cache;
+    }
+
+    private Collection<PermissionNode> getUserPermissions(U user, SubjectCache cache) {
+        Collection<PermissionNode> permissions = cache.getPermissionsSnapshot();
+        if (permissions == null) {
+            permissions = Collections.unmodifiableCollection(userGetPermissions(user));
+            cache.setPermissionsSnapshot(permissions);
+        }
+        return permissions;
+    }
+
+    private Collection<GroupMembership> getUserGroups(U user, SubjectCache cache) {
+        Collection<GroupMembership> groups = cache.getGroupsSnapshot();
+        if (groups == null) {
+            groups = Collections.unmodifiableCollection(userGetGroupMemberships(user));
+            cache.setGroupsSnapshot(groups);
+        }
+        return groups;
+    }
+
+    private Collection<PermissionNode> getGroupPermissions(G group, SubjectCache cache) {
+        Collection<PermissionNode> permissions = cache.getPermissionsSnapshot();
+        if (permissions == null) {
+            permissions = Collections.unmodifiableCollection(groupGetPermissions(group));
+            cache.setPermissionsSnapshot(permissions);
+        }
+        return permissions;
+    }
+
+    private Collection<GroupMembership> getGroupGroups(G group, SubjectCache cache) {
+        Collection<GroupMembership> groups = cache.getGroupsSnapshot();
+        if (groups == null) {
+            groups = Collections.unmodifiableCollection(groupGetGroupMemberships(group));
+            cache.setGroupsSnapshot(groups);
+        }
+        return groups;
+    }
+
+    private MetaSnapshot getUserMeta(U user, SubjectCache cache) {
+        MetaSnapshot meta = cache.getMetaSnapshot();
+        if (meta == null) {
+            meta = new MetaSnapshot(userGetPrefix(user), userGetSuffix(user), new MetaSnapshot.Source() {
+                @Override
+                public @Nullable String getMetadata(@NonNull String key) {
+                    return userGetMetadata(user, key);
+                }
+
+                @Override
+                public @NonNull Map<String, String> getMetadata(@NonNull Collection<String> keys) {
+                    return userGetMetadata(user, keys);
+                }
+
+                @Override
+                public @NonNull Map<String, String> getAllMetadata() {
+                    return userGetAllMetadata(user);
+                }
+            });
+            cache.setMetaSnapshot(meta);
+        }
+        return meta;
+    }
+
+    private MetaSnapshot getGroupMeta(G group, SubjectCache cache) {
+        MetaSnapshot meta = cache.getMetaSnapshot();
+        if (meta == null) {
+            meta = new MetaSnapshot(groupGetPrefix(group), groupGetSuffix(group), new MetaSnapshot.Source() {
+                @Override
+                public @Nullable String getMetadata(@NonNull String key) {
+                    return groupGetMetadata(group, key);
+                }
+
+                @Override
+                public @NonNull Map<String, String> getMetadata(@NonNull Collection<String> keys) {
+                    return groupGetMetadata(group, keys);
+                }
+
+                @Override
+                public @NonNull Map<String, String> getAllMetadata() {
+                    return groupGetAllMetadata(group);
+                }
+            });
+            cache.setMetaSnapshot(meta);
+        }
+        return meta;
+    }
+
+    private void scheduleUserExpiry(U user, @Nullable Instant expiry) {
+        if (expiry != null && setNextExpiry(this.userExpiries, user, expiry)) {
+            WeakReference<U> userRef = new WeakReference<>(user);
+            this.expiryScheduler.schedule(expiry, () -> {
+                U u = userRef.get();
+                if (u != null && this.userExpiries.remove(u, expiry)) {
+                    invalidateUser(u);
+                }
+            });
+        }
+    }
+
+    private void scheduleGroupExpiry(G group, @Nullable Instant expiry) {
+        if (expiry != null && setNextExpiry(this.groupExpiries, group, expiry)) {
+            WeakReference<G> groupRef = new WeakReference<>(group);
+            this.expiryScheduler.schedule(expiry, () -> {
+                G g = groupRef.get();
+                if (g != null && this.groupExpiries.remove(g, expiry)) {
+                    invalidateGroup(g);
+                }
+            });
+        }
+    }
+
+    private static @Nullable Instant getNextExpiry(Collection<? extends PropertyQueryable> entries, @Nullable Instant next) {
+        Instant now = Instant.now();
+        for (PropertyQueryable entry : entries) {
+            Instant expiry = entry.queryProperty(Property.EXPIRY);
+            if (expiry != null && expiry.isAfter(now) && (next == null || expiry.isBefore(next))) {
+                next = expiry;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Records the given expiry as the next one scheduled for the subject,
+     * unless an earlier one is already scheduled.
+     *
+     * @return true if the expiry should be scheduled
+     */
+    private static <T> boolean setNextExpiry(ConcurrentMap<T, Instant> scheduled, T subject, Instant expiry) {
+        while (true) {
+            Instant current = scheduled.get(subject);
+            if (current == null) {
+                if (scheduled.putIfAbsent(subject, expiry) == null) {
+                    return true;
+                }
+            } else if (!expiry.isBefore(current)) {
+                return false;
+            } else if (scheduled.replace(subject, current, expiry)) {
+                return true;
+            }
+        }
+    }
+
+    private PermissionResolver getUserResolver(U user, UUID uniqueId, SubjectCache cache) {
+        Player player = Bukkit.getPlayer(uniqueId);
+        String world = player == null ? null : player.getWorld().getName();
+
+        PermissionResolver resolver = cache.getResolver(world);
+        if (resolver == null) {
+            resolver = new PermissionResolver(world);
+            for (PermissionNode node : getUserPermissions(user, cache)) {
+                resolver.add(node);
+            }
+            for (G group : this.inheritance.getInheritedGroups(getUserGroups(user, cache), world)) {
+                addPermissions(resolver, group);
+            }
+            cache.setResolver(resolver);
+        }
+        return resolver;
+    }
+
+    private PermissionResolver getGroupResolver(G group, SubjectCache cache) {
+        PermissionResolver resolver = cache.getResolver(null);
+        if (resolver == null) {
+            resolver = new PermissionResolver(null);
+            for (PermissionNode node : getGroupPermissions(group, cache)) {
+                resolver.add(node);
+            }
+            for (G inherited : this.inheritance.getInheritedGroups(group, null)) {
+                addPermissions(resolver, inherited);
+            }
+            cache.setResolver(resolver);
+        }
+        return resolver;
+    }
+
+    private PermissionResolver getUserResolver(U user, SubjectCache cache, ContextSet contexts) {
+        PermissionResolver resolver = cache.getContextualResolver(contexts);
+        if (resolver == null) {
+            resolver = PermissionResolver.forContexts(contexts);
+            for (PermissionNode node : getUserPermissions(user, cache)) {
+                resolver.add(node);
+            }
+            for (G group : this.inheritance.getContextualInheritedGroups(getUserGroups(user, cache), contexts)) {
+                addPermissions(resolver, group);
+            }
+            cache.setContextualResolver(contexts, resolver);
+        }
+        return resolver;
+    }
+
+    private PermissionResolver getGroupResolver(G group, SubjectCache cache, ContextSet contexts) {
+        PermissionResolver resolver = cache.getContextualResolver(contexts);
+        if (resolver == null) {
+            resolver = PermissionResolver.forContexts(contexts);
+            for (PermissionNode node : getGroupPermissions(group, cache)) {
+                resolver.add(node);
+            }
+            for (G inherited : this.inheritance.getContextualInheritedGroups(group, contexts)) {
+                addPermissions(resolver, inherited);
+            }
+            cache.setContextualResolver(contexts, resolver);
+        }
+        return resolver;
+    }
+
+    private boolean userResolvePermission(U user, UUID uniqueId, SubjectCache cache, String permission) {
+        if (!resolvePermissionsLocally()) {
+            return userCheckPermission(user, permission);
+        }
+        return getUserResolver(user, uniqueId, cache).check(permission);
+    }
+
+    private boolean userResolvePermission(U user, UUID uniqueId, SubjectCache cache, PermissionKey permission) {
+        if (!resolvePermissionsLocally()) {
+            return userCheckPermission(user, permission.getPermission());
+        }
+        return getUserResolver(user, uniqueId, cache).check(permission);
+    }
+
+    private boolean groupResolvePermission(G group, SubjectCache cache, String permission) {
+        if (!resolvePermissionsLocally()) {
+            return groupCheckPermission(group, permission);
+        }
+        return getGroupResolver(group, cache).check(permission);
+    }
+
+    private boolean groupResolvePermission(G group, SubjectCache cache, PermissionKey permission) {
+        if (!resolvePermissionsLocally()) {
+            return groupCheckPermission(group, permission.getPermission());
+        }
+        return getGroupResolver(group, cache).check(permission);
+    }
+
+    private boolean userResolvePermission(U user, SubjectCache cache, String permission, ContextSet contexts) {
+        if (!resolvePermissionsLocally()) {
+            return userCheckPermission(user, permission, contexts);
+        }
+        return getUserResolver(user, cache, contexts).check(permission);
+    }
+
+    private boolean groupResolvePermission(G group, SubjectCache cache, String permission, ContextSet contexts) {
+        if (!resolvePermissionsLocally()) {
+            return groupCheckPermission(group, permission, contexts);
+        }
+        return getGroupResolver(group, cache, contexts).check(permission);
+    }
+
+    private BitSet userResolvePermissions(U user, UUID uniqueId, SubjectCache cache, List<String> permissions) {
+        if (!resolvePermissionsLocally()) {
+            return userCheckPermissions(user, permissions);
+        }
+
+        PermissionResolver resolver = getUserResolver(user, uniqueId, cache);
+        BitSet results = new BitSet(permissions.size());
+        for (int i = 0; i < permissions.size(); i++) {
+            if (resolver.check(permissions.get(i))) {
+                results.set(i);
+            }
+        }
+        return results;
+    }
+
+    private BitSet groupResolvePermissions(G group, SubjectCache cache, List<String> permissions) {
+        if (!resolvePermissionsLocally()) {
+            return groupCheckPermissions(group, permissions);
+        }
+
+        PermissionResolver resolver = getGroupResolver(group, cache);
+        BitSet results = new BitSet(permissions.size());
+        for (int i = 0; i < permissions.size(); i++) {
+            if (resolver.check(permissions.get(i))) {
+                results.set(i);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Answers as many of the given checks as possible from the cache, and
+     * passes the remainder to the resolve function in a single batch.
+     */
+    private static BitSet checkPermissions(SubjectCache cache, List<String> permissions, Function<List<String>, BitSet> resolveFunction) {
+        BitSet results = new BitSet(permissions.size());
+        List<String> missing = null;
+        int[] missingIndexes = null;
+
+        for (int i = 0; i < permissions.size(); i++) {
+            String permission = permissions.get(i);
+            Boolean result = cache.getPermission(permission);
+            if (result == null) {
+                if (missing == null) {
+                    missing = new ArrayList<>();
+                    missingIndexes = new int[permissions.size() - i];
+                }
+                missingIndexes[missing.size()] = i;
+                missing.add(permission);
+            } else if (result) {
+                results.set(i);
+            }
+        }
+
+        if (missing != null) {
+            BitSet resolved = resolveFunction.apply(missing);
+            for (int i = 0; i < missing.size(); i++) {
+                boolean result = resolved.get(i);
+                cache.putPermission(missing.get(i), result);
+                if (result) {
+                    results.set(missingIndexes[i]);
+                }
+            }
+        }
+        return results;
+    }
+
+    private void addPermissions(PermissionResolver resolver, G group) {
+        for (PermissionNode node : getGroupPermissions(group, getGroupCache(group))) {
+            resolver.add(node);
+        }
+    }
+
+    private List<Group> wrapGroups(List<G> groups) {
+        List<Group> wrappers = new ArrayList<>(groups.size());
+        for (G group : groups) {
+            wrappers.add(getGroupWrapper(group));
+        }
+        return Collections.unmodifiableList(wrappers);
+    }
+
+    @SuppressWarnings("unchecked")
+    private @Nullable G unwrapGroup(Group group) {
+        if (group instanceof AbstractPermissionService.GroupImpl) {
+            return ((GroupImpl) group).group;
+        }
+        return getGroup(group.getName());
+    }
+
+    private FutureAction userAction(U user, CompletableFuture<Void> future) {
+        return new CompletableFutureAction(future.whenComplete((result, ex) -> invalidateUser(user)));
+    }
+
+    private FutureAction groupAction(G group, CompletableFuture<Void> future) {
+        return new CompletableFutureAction(future.whenComplete((result, ex) -> invalidateGroupData(group)));
+    }
+
+    private FutureAction groupInheritanceAction(G group, CompletableFuture<Void> future) {
+        return new CompletableFutureAction(future.whenComplete((result, ex) -> invalidateGroup(group)));
+    }
+
     protected SimplePermissionNode.@NonNull Builder buildPermission(@NonNull String permission) {
         return new SimplePermissionNode.Builder(permission);
     }
 
     protected SimpleGroupMembership.@NonNull Builder buildGroupMembership(@NonNull G group) {
-        return new SimpleGroupMembership.Builder(new GroupImpl(group));
+        return new SimpleGroupMembership.Builder(getGroupWrapper(group));
     }
 
     @Override
     public @NonNull Users users() {
-        return new UsersImpl();
+        return this.users;
     }
 
     @Override
     public @NonNull Groups groups() {
-        return new GroupsImpl();
+        return this.groups;
+    }
+
+    @Override
+    public @NonNull Collection<User> onlineWithPermission(@NonNull String permission) {
+        return this.audiences.get(permission);
     }
 
     private final class UsersImpl implements Users {
@@ -122,43 +955,76 @@ public abstract class AbstractPermissionService<U, G> implements PermissionServi
         @Override
         public @NonNull User get(@NonNull Player player) {
             U user = AbstractPermissionService.this.getUser(player);
-            return new UserImpl(player.getUniqueId(), user);
+            return getUserWrapper(player.getUniqueId(), user);
         }
 
         @Override
         public @Nullable User get(@NonNull UUID uniqueId) {
             U user = AbstractPermissionService.this.getUser(uniqueId);
-            return user == null ? null : new UserImpl(uniqueId, user);
+            return user == null ? null : getUserWrapper(uniqueId, user);
         }
 
         @Override
         public @NonNull FutureResult<User> load(@NonNull UUID uniqueId) {
-            CompletableFuture<U> future = AbstractPermissionService.this.loadUser(uniqueId);
-            return new CompletableFutureResult<>(future.thenApply(u -> new UserImpl(uniqueId, u)));
+            CompletableFuture<U> future = AbstractPermissionService.this.loadUserShared(uniqueId);
+            return new CompletableFutureResult<>(future.thenApply(u -> u == null ? null : getUserWrapper(uniqueId, u)));
+        }
+
+        @Override
+        public @NonNull FutureResult<Map<UUID, User>> loadAll(@NonNull Collection<UUID> uniqueIds) {
+            CompletableFuture<Map<UUID, U>> future = AbstractPermissionService.this.loadUsers(uniqueIds);
+            return new CompletableFutureResult<>(future.thenApply(users -> {
+                Map<UUID, User> wrappers = new HashMap<>();
+                for (Map.Entry<UUID, U> entry : users.entrySet()) {
+                    wrappers.put(entry.getKey(), getUserWrapper(entry.getKey(), entry.getValue()));
+                }
+                return Collections.unmodifiableMap(wrappers);
+            }));
         }
     }
 
     private final class GroupsImpl implements Groups {
 
+        // the last result of all(), reused while getGroups() keeps returning the same instance
+        private volatile AllGroups all = null;
+
         @Override
         public @NonNull Collection<Group> all() {
+            Iterable<G> source = AbstractPermissionService.this.getGroups();
+            AllGroups all = this.all;
+            if (all != null && all.source == source) {
+                return all.groups;
+            }
+
             List<Group> groups = new ArrayList<>();
-            for (G group : AbstractPermissionService.this.getGroups()) {
-                groups.add(new GroupImpl(group));
+            for (G group : source) {
+                groups.add(getGroupWrapper(group));
+            }
+            all = new AllGroups(source, Collections.unmodifiableList(groups));
+            this.all = all;
+            return all.groups;
+        }
+
+        private final class AllGroups {
+            private final Iterable<G> source;
+            private final Collection<Group> groups;
+
+            AllGroups(Iterable<G> source, Collection<Group> groups) {
+                this.source = source;
+                this.groups = groups;
             }
-            return groups;
         }
 
         @Override
         public @Nullable Group get(@NonNull String name) {
             G group = AbstractPermissionService.this.getGroup(name);
-            return group == null ? null : new GroupImpl(group);
+            return group == null ? null : getGroupWrapper(group);
         }
 
         @Override
         public @NonNull FutureResult<Group> load(@NonNull String name) {
-            CompletableFuture<G> future = AbstractPermissionService.this.loadGroup(name);
-            return new CompletableFutureResult<>(future.thenApply(GroupImpl::new));
+            CompletableFuture<G> future = AbstractPermissionService.this.loadGroupShared(name);
+            return new CompletableFutureResult<>(future.thenApply(g -> g == null ? null : getGroupWrapper(g)));
         }
     }
 
@@ -182,6 +1048,62 @@ public abstract class AbstractPermissionService<U, G> implements PermissionServi
         return props;
     }
 
+    private final class MutationBatchImpl implements MutationBatch {
+        private final SubjectType type;
+        private final List<SubjectMutation> mutations = new ArrayList<>();
+
+        private MutationBatchImpl(SubjectType type) {
+            this.type = type;
+        }
+
+        private MutationBatch add(SubjectMutation.Type type, String target, String value, PropertyExtractor properties) {
+            this.mutations.add(new SubjectMutation(type, target, value, properties));
+            return this;
+        }
+
+        @Override
+        public @NonNull MutationBatch setPermission(@NonNull String permission, @NonNull Consumer<PropertyBuilder> properties) {
+            PropertyExtractor props = new PropertyExtractor(getProperties(this.type, PropertyScope.PERMISSION, properties));
+            return add(SubjectMutation.Type.SET_PERMISSION, permission, null, props);
+        }
+
+        @Override
+        public @NonNull MutationBatch unsetPermission(@NonNull PermissionNode permission) {
+            PropertyExtractor props = new PropertyExtractor(permission.properties());
+            return add(SubjectMutation.Type.UNSET_PERMISSION, permission.getPermission(), null, props);
+        }
+
+        @Override
+        public @NonNull MutationBatch addGroup(@NonNull Group group, @NonNull Consumer<PropertyBuilder> properties) {
+            PropertyExtractor props = new PropertyExtractor(getProperties(this.type, PropertyScope.GROUP_MEMBERSHIP, properties));
+            return add(SubjectMutation.Type.ADD_GROUP, group.getName(), null, props);
+        }
+
+        @Override
+        public @NonNull MutationBatch removeGroup(@NonNull GroupMembership group) {
+            PropertyExtractor props = new PropertyExtractor(group.properties());
+            return add(SubjectMutation.Type.REMOVE_GROUP, group.getGroup().getName(), null, props);
+        }
+
+        @Override
+        public @NonNull MutationBatch setPrefix(@Nullable String prefix, @NonNull Consumer<PropertyBuilder> properties) {
+            PropertyExtractor props = new PropertyExtractor(getProperties(this.type, PropertyScope.PREFIX_OR_SUFFIX, properties));
+            return add(SubjectMutation.Type.SET_PREFIX, null, prefix, props);
+        }
+
+        @Override
+        public @NonNull MutationBatch setSuffix(@Nullable String suffix, @NonNull Consumer<PropertyBuilder> properties) {
+            PropertyExtractor props = new PropertyExtractor(getProperties(this.type, PropertyScope.PREFIX_OR_SUFFIX, properties));
+            return add(SubjectMutation.Type.SET_SUFFIX, null, suffix, props);
+        }
+
+        @Override
+        public @NonNull MutationBatch setMetadata(@NonNull String key, @Nullable String value, @NonNull Consumer<PropertyBuilder> properties) {
+            PropertyExtractor props = new PropertyExtractor(getProperties(this.type, PropertyScope.METADATA, properties));
+            return add(SubjectMutation.Type.SET_METADATA, key, value, props);
+        }
+    }
+
     private final class UserImpl implements User {
         private final UUID uniqueId;
         private final U user;
@@ -204,79 +1126,168 @@ public abstract class AbstractPermissionService<U, G> implements PermissionServi
         @Override
         public @Nullable Group getPrimaryGroup() {
             G group = AbstractPermissionService.this.userGetPrimaryGroup(this.user);
-            return group == null ? null : new GroupImpl(group);
+            return group == null ? null : getGroupWrapper(group);
         }
 
         @Override
         public @NonNull Collection<PermissionNode> getPermissions() {
-            return Collections.unmodifiableList(new ArrayList<>(userGetPermissions(this.user)));
+            return getUserPermissions(this.user, getUserCache(this.user));
         }
 
         @Override
         public @NonNull Collection<GroupMembership> getGroups() {
-            return Collections.unmodifiableList(new ArrayList<>(AbstractPermissionService.this.userGetGroupMemberships(this.user)));
+            return getUserGroups(this.user, getUserCache(this.user));
+        }
+
+        @Override
+        public @NonNull List<Group> getInheritedGroups() {
+            Player player = Bukkit.getPlayer(this.uniqueId);
+            return getInheritedGroups(player == null ? null : player.getWorld().getName());
+        }
+
+        @Override
+        public @NonNull List<Group> getInheritedGroups(@Nullable String world) {
+            Collection<GroupMembership> memberships = getUserGroups(this.user, getUserCache(this.user));
+            return wrapGroups(AbstractPermissionService.this.inheritance.getInheritedGroups(memberships, world));
         }
 
         @Override
         public boolean checkPermission(@NonNull String permission) {
-            return AbstractPermissionService.this.userCheckPermission(this.user, permission);
+            SubjectCache cache = getUserCache(this.user);
+            Boolean result = cache.getPermission(permission);
+            if (result == null) {
+                result = userResolvePermission(this.user, this.uniqueId, cache, permission);
+                cache.putPermission(permission, result);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean checkPermission(@NonNull String permission, @NonNull Set<Context> contexts) {
+            ContextSet contextSet = ContextSet.of(contexts);
+            SubjectCache cache = getUserCache(this.user);
+            Boolean result = cache.getPermission(contextSet, permission);
+            if (result == null) {
+                result = userResolvePermission(this.user, cache, permission, contextSet);
+                cache.putPermission(contextSet, permission, result);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean checkPermission(@NonNull PermissionKey permission) {
+            SubjectCache cache = getUserCache(this.user);
+            Boolean result = cache.getPermission(permission);
+            if (result == null) {
+                result = userResolvePermission(this.user, this.uniqueId, cache, permission);
+                cache.putPermission(permission, result);
+            }
+            return result;
+        }
+
+        @Override
+        public @NonNull BitSet checkPermissions(@NonNull List<String> permissions) {
+            SubjectCache cache = getUserCache(this.user);
+            return AbstractPermissionService.checkPermissions(cache, permissions, missing -> userResolvePermissions(this.user, this.uniqueId, cache, missing));
         }
 
         @Override
         public @NonNull FutureAction setPermission(@NonNull String permission, @NonNull Consumer<PropertyBuilder> properties) {
             PropertyExtractor props = new PropertyExtractor(getProperties(SubjectType.USER, PropertyScope.PERMISSION, properties));
-            return new CompletableFutureAction(AbstractPermissionService.this.userSetPermission(this.user, permission, props));
+            return userAction(this.user, AbstractPermissionService.this.userSetPermission(this.user, permission, props));
         }
 
         @Override
         public @NonNull FutureAction unsetPermission(@NonNull PermissionNode permission) {
             PropertyExtractor props = new PropertyExtractor(permission.properties());
-            return new CompletableFutureAction(AbstractPermissionService.this.userUnsetPermission(this.user, permission.getPermission(), props));
+            return userAction(this.user, AbstractPermissionService.this.userUnsetPermission(this.user, permission.getPermission(), props));
         }
 
         @Override
         public @NonNull FutureAction addGroup(@NonNull Group group, @NonNull Consumer<PropertyBuilder> properties) {
             PropertyExtractor props = new PropertyExtractor(getProperties(SubjectType.USER, PropertyScope.GROUP_MEMBERSHIP, properties));
-            return new CompletableFutureAction(AbstractPermissionService.this.userAddGroup(this.user, group.getName(), props));
+            return userAction(this.user, AbstractPermissionService.this.userAddGroup(this.user, group.getName(), props));
         }
 
         @Override
         public @NonNull FutureAction removeGroup(@NonNull GroupMembership group) {
             PropertyExtractor props = new PropertyExtractor(group.properties());
-            return new CompletableFutureAction(AbstractPermissionService.this.userRemoveGroup(this.user, group.getGroup().getName(), props));
+            return userAction(this.user, AbstractPermissionService.this.userRemoveGroup(this.user, group.getGroup().getName(), props));
+        }
+
+        @Override
+        public @NonNull FutureAction batch(@NonNull Consumer<MutationBatch> mutations) {
+            MutationBatchImpl batch = new MutationBatchImpl(SubjectType.USER);
+            mutations.accept(batch);
+            return userAction(this.user, AbstractPermissionService.this.userApplyBatch(this.user, batch.mutations));
         }
 
         @Override
         public @Nullable String getPrefix() {
-            return AbstractPermissionService.this.userGetPrefix(this.user);
+            return getUserMeta(this.user, getUserCache(this.user)).getPrefix();
         }
 
         @Override
         public @Nullable String getSuffix() {
-            return AbstractPermissionService.this.userGetSuffix(this.user);
+            return getUserMeta(this.user, getUserCache(this.user)).getSuffix();
         }
 
         @Override
         public @Nullable String getMetadata(@NonNull String key) {
-            return AbstractPermissionService.this.userGetMetadata(this.user, key);
+            return getUserMeta(this.user, getUserCache(this.user)).getMetadata(key).getString();
+        }
+
+        @Override
+        public @NonNull Map<String, String> getMetadata(@NonNull Collection<String> keys) {
+            return getUserMeta(this.user, getUserCache(this.user)).getMetadata(keys);
+        }
+
+        @Override
+        public @NonNull Map<String, String> getAllMetadata() {
+            return getUserMeta(this.user, getUserCache(this.user)).getAllMetadata();
+        }
+
+        @Override
+        public int getMetadataInt(@NonNull String key, int defaultValue) {
+            return getUserMeta(this.user, getUserCache(this.user)).getMetadata(key).getInt(defaultValue);
+        }
+
+        @Override
+        public long getMetadataLong(@NonNull String key, long defaultValue) {
+            return getUserMeta(this.user, getUserCache(this.user)).getMetadata(key).getLong(defaultValue);
+        }
+
+        @Override
+        public double getMetadataDouble(@NonNull String key, double defaultValue) {
+            return getUserMeta(this.user, getUserCache(this.user)).getMetadata(key).getDouble(defaultValue);
+        }
+
+        @Override
+        public boolean getMetadataBoolean(@NonNull String key, boolean defaultValue) {
+            return getUserMeta(this.user, getUserCache(this.user)).getMetadata(key).getBoolean(defaultValue);
+        }
+
+        @Override
+        public @Nullable Duration getMetadataDuration(@NonNull String key) {
+            return getUserMeta(this.user, getUserCache(this.user)).getMetadata(key).getDuration();
         }
 
         @Override
         public @NonNull FutureAction setPrefix(@Nullable String prefix, @NonNull Consumer<PropertyBuilder> properties) {
             PropertyExtractor props = new PropertyExtractor(getProperties(SubjectType.USER, PropertyScope.PREFIX_OR_SUFFIX, properties));
-            return new CompletableFutureAction(AbstractPermissionService.this.userSetPrefix(this.user, prefix, props));
+            return userAction(this.user, AbstractPermissionService.this.userSetPrefix(this.user, prefix, props));
         }
 
         @Override
         public @NonNull FutureAction setSuffix(@Nullable String suffix, @NonNull Consumer<PropertyBuilder> properties) {
             PropertyExtractor props = new PropertyExtractor(getProperties(SubjectType.USER, PropertyScope.PREFIX_OR_SUFFIX, properties));
-            return new CompletableFutureAction(AbstractPermissionService.this.userSetSuffix(this.user, suffix, props));
+            return userAction(this.user, AbstractPermissionService.this.userSetSuffix(this.user, suffix, props));
         }
 
         @Override
         public @NonNull FutureAction setMetadata(@NonNull String key, @Nullable String value, @NonNull Consumer<PropertyBuilder> properties) {
             PropertyExtractor props = new PropertyExtractor(getProperties(SubjectType.USER, PropertyScope.METADATA, properties));
-            return new CompletableFutureAction(AbstractPermissionService.this.userSetMetadata(this.user, key, value, props));
+            return userAction(this.user, AbstractPermissionService.this.userSetMetadata(this.user, key, value, props));
         }
     }
 
@@ -299,74 +1310,161 @@ public abstract class AbstractPermissionService<U, G> implements PermissionServi
 
         @Override
         public @NonNull Collection<PermissionNode> getPermissions() {
-            return Collections.unmodifiableList(new ArrayList<>(groupGetPermissions(this.group)));
+            return getGroupPermissions(this.group, getGroupCache(this.group));
         }
 
         @Override
         public @NonNull Collection<GroupMembership> getGroups() {
-            return Collections.unmodifiableList(new ArrayList<>(AbstractPermissionService.this.groupGetGroupMemberships(this.group)));
+            return getGroupGroups(this.group, getGroupCache(this.group));
+        }
+
+        @Override
+        public @NonNull List<Group> getInheritedGroups() {
+            return getInheritedGroups(null);
+        }
+
+        @Override
+        public @NonNull List<Group> getInheritedGroups(@Nullable String world) {
+            return wrapGroups(AbstractPermissionService.this.inheritance.getInheritedGroups(this.group, world));
         }
 
         @Override
         public boolean checkPermission(@NonNull String permission) {
-            return AbstractPermissionService.this.groupCheckPermission(this.group, permission);
+            SubjectCache cache = getGroupCache(this.group);
+            Boolean result = cache.getPermission(permission);
+            if (result == null) {
+                result = groupResolvePermission(this.group, cache, permission);
+                cache.putPermission(permission, result);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean checkPermission(@NonNull String permission, @NonNull Set<Context> contexts) {
+            ContextSet contextSet = ContextSet.of(contexts);
+            SubjectCache cache = getGroupCache(this.group);
+            Boolean result = cache.getPermission(contextSet, permission);
+            if (result == null) {
+                result = groupResolvePermission(this.group, cache, permission, contextSet);
+                cache.putPermission(contextSet, permission, result);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean checkPermission(@NonNull PermissionKey permission) {
+            SubjectCache cache = getGroupCache(this.group);
+            Boolean result = cache.getPermission(permission);
+            if (result == null) {
+                result = groupResolvePermission(this.group, cache, permission);
+                cache.putPermission(permission, result);
+            }
+            return result;
+        }
+
+        @Override
+        public @NonNull BitSet checkPermissions(@NonNull List<String> permissions) {
+            SubjectCache cache = getGroupCache(this.group);
+            return AbstractPermissionService.checkPermissions(cache, permissions, missing -> groupResolvePermissions(this.group, cache, missing));
         }
 
         @Override
         public @NonNull FutureAction setPermission(@NonNull String permission, @NonNull Consumer<PropertyBuilder> properties) {
             PropertyExtractor props = new PropertyExtractor(getProperties(SubjectType.GROUP, PropertyScope.PERMISSION, properties));
-            return new CompletableFutureAction(AbstractPermissionService.this.groupSetPermission(this.group, permission, props));
+            return groupAction(this.group, AbstractPermissionService.this.groupSetPermission(this.group, permission, props));
         }
 
         @Override
         public @NonNull FutureAction unsetPermission(@NonNull PermissionNode permission) {
             PropertyExtractor props = new PropertyExtractor(permission.properties());
-            return new CompletableFutureAction(AbstractPermissionService.this.groupUnsetPermission(this.group, permission.getPermission(), props));
+            return groupAction(this.group, AbstractPermissionService.this.groupUnsetPermission(this.group, permission.getPermission(), props));
         }
 
         @Override
         public @NonNull FutureAction addGroup(@NonNull Group group, @NonNull Consumer<PropertyBuilder> properties) {
             PropertyExtractor props = new PropertyExtractor(getProperties(SubjectType.GROUP, PropertyScope.GROUP_MEMBERSHIP, properties));
-            return new CompletableFutureAction(AbstractPermissionService.this.groupAddGroup(this.group, group.getName(), props));
+            return groupInheritanceAction(this.group, AbstractPermissionService.this.groupAddGroup(this.group, group.getName(), props));
         }
 
         @Override
         public @NonNull FutureAction removeGroup(@NonNull GroupMembership group) {
             PropertyExtractor props = new PropertyExtractor(group.properties());
-            return new CompletableFutureAction(AbstractPermissionService.this.groupRemoveGroup(this.group, group.getGroup().getName(), props));
+            return groupInheritanceAction(this.group, AbstractPermissionService.this.groupRemoveGroup(this.group, group.getGroup().getName(), props));
+        }
+
+        @Override
+        public @NonNull FutureAction batch(@NonNull Consumer<MutationBatch> mutations) {
+            MutationBatchImpl batch = new MutationBatchImpl(SubjectType.GROUP);
+            mutations.accept(batch);
+            return groupInheritanceAction(this.group, AbstractPermissionService.this.groupApplyBatch(this.group, batch.mutations));
         }
 
         @Override
         public @Nullable String getPrefix() {
-            return AbstractPermissionService.this.groupGetPrefix(this.group);
+            return getGroupMeta(this.group, getGroupCache(this.group)).getPrefix();
         }
 
         @Override
         public @Nullable String getSuffix() {
-            return AbstractPermissionService.this.groupGetSuffix(this.group);
+            return getGroupMeta(this.group, getGroupCache(this.group)).getSuffix();
         }
 
         @Override
         public @Nullable String getMetadata(@NonNull String key) {
-            return AbstractPermissionService.this.groupGetMetadata(this.group, key);
+            return getGroupMeta(this.group, getGroupCache(this.group)).getMetadata(key).getString();
+        }
+
+        @Override
+        public @NonNull Map<String, String> getMetadata(@NonNull Collection<String> keys) {
+            return getGroupMeta(this.group, getGroupCache(this.group)).getMetadata(keys);
+        }
+
+        @Override
+        public @NonNull Map<String, String> getAllMetadata() {
+            return getGroupMeta(this.group, getGroupCache(this.group)).getAllMetadata();
+        }
+
+        @Override
+        public int getMetadataInt(@NonNull String key, int defaultValue) {
+            return getGroupMeta(this.group, getGroupCache(this.group)).getMetadata(key).getInt(defaultValue);
+        }
+
+        @Override
+        public long getMetadataLong(@NonNull String key, long defaultValue) {
+            return getGroupMeta(this.group, getGroupCache(this.group)).getMetadata(key).getLong(defaultValue);
+        }
+
+        @Override
+        public double getMetadataDouble(@NonNull String key, double defaultValue) {
+            return getGroupMeta(this.group, getGroupCache(this.group)).getMetadata(key).getDouble(defaultValue);
+        }
+
+        @Override
+        public boolean getMetadataBoolean(@NonNull String key, boolean defaultValue) {
+            return getGroupMeta(this.group, getGroupCache(this.group)).getMetadata(key).getBoolean(defaultValue);
+        }
+
+        @Override
+        public @Nullable Duration getMetadataDuration(@NonNull String key) {
+            return getGroupMeta(this.group, getGroupCache(this.group)).getMetadata(key).getDuration();
         }
 
         @Override
         public @NonNull FutureAction setPrefix(@Nullable String prefix, @NonNull Consumer<PropertyBuilder> properties) {
             PropertyExtractor props = new PropertyExtractor(getProperties(SubjectType.GROUP, PropertyScope.PREFIX_OR_SUFFIX, properties));
-            return new CompletableFutureAction(AbstractPermissionService.this.groupSetPrefix(this.group, prefix, props));
+            return groupAction(this.group, AbstractPermissionService.this.groupSetPrefix(this.group, prefix, props));
         }
 
         @Override
         public @NonNull FutureAction setSuffix(@Nullable String suffix, @NonNull Consumer<PropertyBuilder> properties) {
             PropertyExtractor props = new PropertyExtractor(getProperties(SubjectType.GROUP, PropertyScope.PREFIX_OR_SUFFIX, properties));
-            return new CompletableFutureAction(AbstractPermissionService.this.groupSetSuffix(this.group, suffix, props));
+            return groupAction(this.group, AbstractPermissionService.this.groupSetSuffix(this.group, suffix, props));
         }
 
         @Override
         public @NonNull FutureAction setMetadata(@NonNull String key, @Nullable String value, @NonNull Consumer<PropertyBuilder> properties) {
             PropertyExtractor props = new PropertyExtractor(getProperties(SubjectType.GROUP, PropertyScope.METADATA, properties));
-            return new CompletableFutureAction(AbstractPermissionService.this.groupSetMetadata(this.group, key, value, props));
+            return groupAction(this.group, AbstractPermissionService.this.groupSetMetadata(this.group, key, value, props));
         }
     }
 }
@@ -0,0 +1,195 @@
+/*
+ * This file is part of synapse, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.synapse.impl;
+
+import me.lucko.synapse.permission.subject.User;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Tracks the online users who have each of a set of watched permissions.
+ *
+ * <p>A permission is watched from the first time it is queried. After that,
+ * only users who have been marked as changed are checked again, so a query
+ * costs time proportional to the number of changes since the last one,
+ * rather than the number of online players.</p>
+ *
+ * <p>Permissions which have not been queried for five minutes stop being
+ * watched, so they no longer cost anything to invalidate.</p>
+ */
+final class AudienceIndex {
+    private static final long IDLE_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final Function<Player, User> userFunction;
+
+    // lower case permission -> audience
+    private final ConcurrentMap<String, Audience> audiences = new ConcurrentHashMap<>();
+    private volatile long nextEviction = System.nanoTime() + IDLE_TIMEOUT_NANOS;
+
+    AudienceIndex(@NonNull Function<Player, User> userFunction) {
+        this.userFunction = userFunction;
+    }
+
+    /**
+     * Gets the online users who have the given permission.
+     *
+     * <p>This reads the online players, so must be called from the server
+     * thread.</p>
+     *
+     * @param permission the permission
+     * @return the users
+     */
+    @NonNull Collection<User> get(@NonNull String permission) {
+        long now = System.nanoTime();
+        if (now - this.nextEviction >= 0) {
+            this.nextEviction = now + IDLE_TIMEOUT_NANOS;
+            this.audiences.values().removeIf(audience -> now - audience.lastQueried >= IDLE_TIMEOUT_NANOS);
+        }
+
+        Audience audience = this.audiences.computeIfAbsent(permission.toLowerCase(Locale.ROOT), Audience::new);
+        audience.lastQueried = now;
+        Collection<User> users = audience.users;
+        if (users != null && !audience.allChanged && audience.changed.isEmpty()) {
+            return users;
+        }
+
+        synchronized (audience) {
+            boolean modified = audience.users == null;
+            if (audience.allChanged) {
+                audience.allChanged = false;
+                audience.changed.clear();
+                audience.members.clear();
+                for (Player player : Bukkit.getOnlinePlayers()) {
+                    User user = this.userFunction.apply(player);
+                    if (user.checkPermission(audience.permission)) {
+                        audience.members.put(player.getUniqueId(), user);
+                    }
+                }
+                modified = true;
+            } else {
+                Iterator<UUID> it = audience.changed.iterator();
+                while (it.hasNext()) {
+                    UUID uniqueId = it.next();
+                    it.remove();
+                    modified |= update(audience, uniqueId);
+                }
+            }
+
+            if (modified) {
+                audience.users = Collections.unmodifiableList(new ArrayList<>(audience.members.values()));
+            }
+            return audience.users;
+        }
+    }
+
+    /**
+     * Marks the user with the given unique id as changed, so they are
+     * checked again the next time each audience is queried.
+     *
+     * @param uniqueId the unique id of the user
+     */
+    void invalidate(@NonNull UUID uniqueId) {
+        for (Audience audience : this.audiences.values()) {
+            audience.changed.add(uniqueId);
+        }
+    }
+
+    /**
+     * Removes the user with the given unique id from every audience.
+     *
+     * <p>Players are still online while their quit event is called, so
+     * quitting users are removed directly rather than checked again.</p>
+     *
+     * @param uniqueId the unique id of the user
+     */
+    void remove(@NonNull UUID uniqueId) {
+        for (Audience audience : this.audiences.values()) {
+            synchronized (audience) {
+                audience.changed.remove(uniqueId);
+                if (audience.members.remove(uniqueId) != null) {
+                    audience.users = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks every user as changed.
+     */
+    void invalidateAll() {
+        for (Audience audience : this.audiences.values()) {
+            audience.allChanged = true;
+        }
+    }
+
+    private boolean update(Audience audience, UUID uniqueId) {
+        Player player = Bukkit.getPlayer(uniqueId);
+        if (player == null) {
+            return audience.members.remove(uniqueId) != null;
+        }
+
+        User user = this.userFunction.apply(player);
+        if (user.checkPermission(audience.permission)) {
+            return audience.members.put(uniqueId, user) != user;
+        } else {
+            return audience.members.remove(uniqueId) != null;
+        }
+    }
+
+    private static final class Audience {
+        private final String permission;
+
+        // users who may have changed since the audience was last queried
+        private final Set<UUID> changed = ConcurrentHashMap.newKeySet();
+        private volatile boolean allChanged = true;
+        private volatile long lastQueried = System.nanoTime();
+
+        // guarded by this. holding the users keeps their wrappers (and so the
+        // mapping back to their unique id) alive while they are members
+        private final Map<UUID, User> members = new HashMap<>();
+        private volatile Collection<User> users = null;
+
+        Audience(String permission) {
+            this.permission = permission;
+        }
+    }
+}
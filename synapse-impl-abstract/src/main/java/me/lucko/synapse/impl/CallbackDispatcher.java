@@ -0,0 +1,157 @@
+/*
+ * This file is part of synapse, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.synapse.impl;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.server.PluginDisableEvent;
+import org.bukkit.plugin.Plugin;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Runs completion callbacks on the main thread on behalf of a plugin.
+ *
+ * <p>Rather than scheduling a task for every callback, callbacks are queued
+ * and drained by a single scheduler task per tick. An optional time budget
+ * limits how long is spent running callbacks in one tick; any that remain
+ * are carried over to the next.</p>
+ *
+ * <p>Dispatchers are discarded when their plugin is disabled.</p>
+ */
+public final class CallbackDispatcher implements Executor, Runnable {
+    private static final Map<Plugin, CallbackDispatcher> DISPATCHERS = new ConcurrentHashMap<>();
+    private static volatile long timeBudgetNanos = 0;
+
+    /**
+     * Sets the maximum amount of time to spend running callbacks in a single
+     * tick, for each plugin.
+     *
+     * <p>A budget of zero (the default) means all pending callbacks are run
+     * in the tick after they are queued.</p>
+     *
+     * @param budget the budget
+     * @param unit the unit of the budget
+     */
+    public static void setTimeBudget(long budget, @NonNull TimeUnit unit) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("budget cannot be negative");
+        }
+        timeBudgetNanos = unit.toNanos(budget);
+    }
+
+    static CallbackDispatcher get(Plugin plugin) {
+        return DISPATCHERS.computeIfAbsent(plugin, p -> {
+            CallbackDispatcher dispatcher = new CallbackDispatcher(p);
+            p.getServer().getPluginManager().registerEvents(dispatcher.new DisableListener(), p);
+            return dispatcher;
+        });
+    }
+
+    private final Plugin plugin;
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    private CallbackDispatcher(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void execute(@NonNull Runnable callback) {
+        this.queue.add(callback);
+        if (this.scheduled.compareAndSet(false, true)) {
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        try {
+            this.plugin.getServer().getScheduler().runTask(this.plugin, this);
+        } catch (RuntimeException e) {
+            // the plugin has been disabled, don't hold on to it
+            discard();
+            throw e;
+        }
+    }
+
+    private void discard() {
+        this.queue.clear();
+        this.scheduled.set(false);
+        DISPATCHERS.remove(this.plugin, this);
+    }
+
+    @Override
+    public void run() {
+        long budget = timeBudgetNanos;
+        long deadline = System.nanoTime() + budget;
+
+        Runnable callback;
+        while ((callback = this.queue.poll()) != null) {
+            try {
+                callback.run();
+            } catch (Throwable e) {
+                this.plugin.getLogger().log(Level.SEVERE, "Exception thrown by synapse callback", e);
+            }
+
+            if (budget != 0 && System.nanoTime() - deadline >= 0 && !this.queue.isEmpty()) {
+                schedule();
+                return;
+            }
+        }
+
+        this.scheduled.set(false);
+
+        // a callback may have been queued after the last poll, but before
+        // the flag was cleared
+        if (!this.queue.isEmpty() && this.scheduled.compareAndSet(false, true)) {
+            schedule();
+        }
+    }
+
+    /**
+     * Discards the dispatcher when its plugin is disabled. Registered on
+     * behalf of the plugin itself, which is still called for its own
+     * disable event.
+     */
+    private final class DisableListener implements Listener {
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onPluginDisable(PluginDisableEvent e) {
+            if (e.getPlugin() == CallbackDispatcher.this.plugin) {
+                discard();
+            }
+        }
+    }
+}
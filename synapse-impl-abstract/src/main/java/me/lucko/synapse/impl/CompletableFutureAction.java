@@ -31,7 +31,6 @@ import org.bukkit.plugin.Plugin;
 import org.checkerframework.checker.nullness.qual.NonNull;
 
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
 
 public class CompletableFutureAction implements FutureAction {
     private final CompletableFuture<?> future;
@@ -42,8 +41,12 @@ public class CompletableFutureAction implements FutureAction {
 
     @Override
     public void whenComplete(@NonNull Plugin plugin, @NonNull Runnable runnable) {
-        Executor executor = r -> plugin.getServer().getScheduler().runTask(plugin, r);
-        this.future.thenRunAsync(runnable, executor);
+        // no need to wait for the next tick if the result is already available
+        if (this.future.isDone() && !this.future.isCompletedExceptionally() && plugin.getServer().isPrimaryThread()) {
+            runnable.run();
+            return;
+        }
+        this.future.thenRunAsync(runnable, CallbackDispatcher.get(plugin));
     }
 
     @Override
@@ -32,7 +32,6 @@ import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -45,8 +44,12 @@ public class CompletableFutureResult<T> implements FutureResult<T> {
 
     @Override
     public void whenComplete(@NonNull Plugin plugin, @NonNull Consumer<? super T> callback) {
-        Executor executor = r -> plugin.getServer().getScheduler().runTask(plugin, r);
-        this.future.thenAcceptAsync(callback, executor);
+        // no need to wait for the next tick if the result is already available
+        if (this.future.isDone() && !this.future.isCompletedExceptionally() && plugin.getServer().isPrimaryThread()) {
+            callback.accept(this.future.join());
+            return;
+        }
+        this.future.thenAcceptAsync(callback, CallbackDispatcher.get(plugin));
     }
 
     @Override
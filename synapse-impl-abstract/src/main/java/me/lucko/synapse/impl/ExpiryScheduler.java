@@ -0,0 +1,204 @@
+/*
+ * This file is part of synapse, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.synapse.impl;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs actions when permissions or group memberships expire.
+ *
+ * <p>Actions are held in a hierarchical timing wheel, so scheduling an
+ * action and advancing the wheel by a tick take constant time regardless of
+ * how many actions are pending. Each level of the wheel covers
+ * {@value #WHEEL_SIZE} times the span of the level below; actions further
+ * in the future than the top level covers are parked in its furthest slot
+ * and placed again when it is reached.</p>
+ *
+ * <p>Actions run on a single daemon thread, which is started when the first
+ * action is scheduled, and may run up to one tick late.</p>
+ */
+final class ExpiryScheduler implements Runnable {
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELAY_TICKS = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+    private static final Logger LOGGER = Logger.getLogger(ExpiryScheduler.class.getName());
+
+    private final long tickMillis;
+    private final long startMillis = System.currentTimeMillis();
+
+    // guarded by this
+    private final Entry[][] wheels = new Entry[LEVELS][WHEEL_SIZE];
+    private long currentTick = 0;
+    private Thread thread = null;
+    private boolean shutdown = false;
+
+    ExpiryScheduler(long tick, @NonNull TimeUnit unit) {
+        this.tickMillis = Math.max(1, unit.toMillis(tick));
+    }
+
+    /**
+     * Schedules an action to run at the given time.
+     *
+     * @param time the time
+     * @param action the action
+     */
+    synchronized void schedule(@NonNull Instant time, @NonNull Runnable action) {
+        if (this.shutdown) {
+            return;
+        }
+        if (this.thread == null) {
+            this.thread = new Thread(this, "synapse-expiry-scheduler");
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        // round up, so the action never runs early
+        long delayMillis = Math.max(0, time.toEpochMilli() - this.startMillis);
+        long deadline = (delayMillis + this.tickMillis - 1) / this.tickMillis;
+        insert(new Entry(deadline, action));
+    }
+
+    /**
+     * Stops the scheduler, discarding any pending actions.
+     */
+    void shutdown() {
+        Thread thread;
+        synchronized (this) {
+            this.shutdown = true;
+            thread = this.thread;
+            for (Entry[] wheel : this.wheels) {
+                Arrays.fill(wheel, null);
+            }
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            Entry expired;
+            long sleepMillis;
+            synchronized (this) {
+                if (this.shutdown) {
+                    return;
+                }
+                long targetTick = (System.currentTimeMillis() - this.startMillis) / this.tickMillis;
+                expired = null;
+                while (this.currentTick < targetTick) {
+                    expired = advance(expired);
+                }
+                // bounded by the tick length, in case the clock moves backwards
+                sleepMillis = Math.min(this.tickMillis, (this.currentTick + 1) * this.tickMillis - (System.currentTimeMillis() - this.startMillis));
+            }
+
+            for (Entry entry = expired; entry != null; entry = entry.next) {
+                try {
+                    entry.action.run();
+                } catch (Throwable e) {
+                    LOGGER.log(Level.SEVERE, "Exception thrown by synapse expiry action", e);
+                }
+            }
+
+            if (sleepMillis > 0) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(sleepMillis));
+            }
+        }
+    }
+
+    /**
+     * Advances the wheel by one tick.
+     *
+     * @param expired the list of expired entries to add to
+     * @return the list of expired entries
+     */
+    private Entry advance(Entry expired) {
+        long tick = ++this.currentTick;
+
+        // when a level wraps around, move the entries from the next slot of
+        // the level above down into the lower levels
+        for (int level = 1; level < LEVELS; level++) {
+            if ((tick & ((1L << (WHEEL_BITS * level)) - 1)) != 0) {
+                break;
+            }
+            int slot = (int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+            Entry entry = this.wheels[level][slot];
+            this.wheels[level][slot] = null;
+            while (entry != null) {
+                Entry next = entry.next;
+                insert(entry);
+                entry = next;
+            }
+        }
+
+        int slot = (int) (tick & WHEEL_MASK);
+        Entry entry = this.wheels[0][slot];
+        this.wheels[0][slot] = null;
+        while (entry != null) {
+            Entry next = entry.next;
+            entry.next = expired;
+            expired = entry;
+            entry = next;
+        }
+        return expired;
+    }
+
+    private void insert(Entry entry) {
+        long delay = Math.min(entry.deadline - this.currentTick, MAX_DELAY_TICKS);
+        long deadline = this.currentTick + Math.max(delay, 1);
+
+        int level = 0;
+        while (level < LEVELS - 1 && delay >= 1L << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+
+        int slot = (int) ((deadline >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        entry.next = this.wheels[level][slot];
+        this.wheels[level][slot] = entry;
+    }
+
+    private static final class Entry {
+        private final long deadline;
+        private final Runnable action;
+        private Entry next;
+
+        Entry(long deadline, Runnable action) {
+            this.deadline = deadline;
+            this.action = action;
+        }
+    }
+}
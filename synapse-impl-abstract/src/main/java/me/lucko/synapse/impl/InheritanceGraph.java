@@ -0,0 +1,337 @@
+/*
+ * This file is part of synapse, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.synapse.impl;
+
+import me.lucko.synapse.context.ContextSet;
+import me.lucko.synapse.permission.membership.GroupMembership;
+import me.lucko.synapse.permission.property.Property;
+import me.lucko.synapse.permission.subject.Group;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Caches the flattened set of groups each group inherits from, per world or
+ * set of contexts. The groups reachable through memberships in any world are also cached, to
+ * find the subjects affected by a change to a group.
+ *
+ * <p>Inherited groups are ordered by precedence, in the order a depth-first
+ * walk of the memberships reaches them. When the memberships of a group
+ * change, only the entries for that group and the groups which inherit from
+ * it are discarded; the rest of the graph is kept.</p>
+ *
+ * @param <G> the group type used by the implementation
+ */
+final class InheritanceGraph<G> {
+    private static final String GLOBAL = "";
+
+    // the maximum number of context sets to cache closures for, per group
+    private static final int MAX_CONTEXT_SCOPES = 64;
+
+    private final Function<G, String> nameFunction;
+    private final Function<G, Collection<GroupMembership>> membershipsFunction;
+    private final Function<Group, G> unwrapFunction;
+
+    // lower case group name -> lower case world (or GLOBAL), context set, or Scope.ANY -> closure
+    private final ConcurrentMap<String, ConcurrentMap<Object, Closure<G>>> closures = new ConcurrentHashMap<>();
+
+    // incremented on every invalidation, so closures computed concurrently
+    // with one are not cached
+    private final AtomicLong version = new AtomicLong();
+
+    InheritanceGraph(Function<G, String> nameFunction, Function<G, Collection<GroupMembership>> membershipsFunction, Function<Group, G> unwrapFunction) {
+        this.nameFunction = nameFunction;
+        this.membershipsFunction = membershipsFunction;
+        this.unwrapFunction = unwrapFunction;
+    }
+
+    /**
+     * Gets the groups inherited through the given memberships, including
+     * the groups they inherit from.
+     *
+     * @param memberships the direct memberships of the subject
+     * @param world the world, or null for memberships which apply globally
+     * @return the inherited groups, in order of precedence
+     */
+    @NonNull List<G> getInheritedGroups(@NonNull Collection<GroupMembership> memberships, @Nullable String world) {
+        return getInheritedGroups(memberships, new Scope(world));
+    }
+
+    /**
+     * Gets the groups inherited through the given memberships which apply in
+     * the given contexts, including the groups they inherit from.
+     *
+     * @param memberships the direct memberships of the subject
+     * @param contexts the contexts
+     * @return the inherited groups, in order of precedence
+     */
+    @NonNull List<G> getContextualInheritedGroups(@NonNull Collection<GroupMembership> memberships, @NonNull ContextSet contexts) {
+        return getInheritedGroups(memberships, new Scope(contexts));
+    }
+
+    /**
+     * Gets the groups the given group inherits from, directly or indirectly.
+     *
+     * @param group the group
+     * @param world the world, or null for memberships which apply globally
+     * @return the inherited groups, in order of precedence
+     */
+    @NonNull List<G> getInheritedGroups(@NonNull G group, @Nullable String world) {
+        return getClosure(group, new Scope(world)).groups;
+    }
+
+    /**
+     * Gets the groups the given group inherits from, directly or indirectly,
+     * through memberships which apply in the given contexts.
+     *
+     * @param group the group
+     * @param contexts the contexts
+     * @return the inherited groups, in order of precedence
+     */
+    @NonNull List<G> getContextualInheritedGroups(@NonNull G group, @NonNull ContextSet contexts) {
+        return getClosure(group, new Scope(contexts)).groups;
+    }
+
+    /**
+     * Gets if a subject with the given memberships may inherit from the
+     * given group, through memberships in any world, including expired ones.
+     *
+     * @param memberships the direct memberships of the subject
+     * @param group the group
+     * @return true if the subject may inherit from the group
+     */
+    boolean inheritsFrom(@NonNull Collection<GroupMembership> memberships, @NonNull G group) {
+        String name = getName(group);
+        for (GroupMembership membership : memberships) {
+            if (membership.getGroup().getName().toLowerCase(Locale.ROOT).equals(name)) {
+                return true;
+            }
+            G member = this.unwrapFunction.apply(membership.getGroup());
+            if (member != null && inheritsFrom(member, group)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets if a group may inherit from another, through memberships in any
+     * world, including expired ones.
+     *
+     * @param subject the inheriting group
+     * @param group the group
+     * @return true if the subject may inherit from the group
+     */
+    boolean inheritsFrom(@NonNull G subject, @NonNull G group) {
+        return getClosure(subject, Scope.ANY).names.contains(getName(group));
+    }
+
+    private List<G> getInheritedGroups(Collection<GroupMembership> memberships, Scope scope) {
+        Instant now = Instant.now();
+        Map<String, G> visited = new LinkedHashMap<>();
+        for (GroupMembership membership : memberships) {
+            if (!scope.applies(membership, now)) {
+                continue;
+            }
+            G group = this.unwrapFunction.apply(membership.getGroup());
+            if (group == null || visited.putIfAbsent(getName(group), group) != null) {
+                continue;
+            }
+            for (G inherited : getClosure(group, scope).groups) {
+                visited.putIfAbsent(getName(inherited), inherited);
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<>(visited.values()));
+    }
+
+    private Closure<G> getClosure(G group, Scope scope) {
+        String name = getName(group);
+        Instant now = Instant.now();
+
+        ConcurrentMap<Object, Closure<G>> scopes = this.closures.get(name);
+        Closure<G> closure = scopes == null ? null : scopes.get(scope.key);
+        if (closure != null && closure.group == group && (closure.expiry == null || closure.expiry.isAfter(now))) {
+            return closure;
+        }
+
+        long version = this.version.get();
+        closure = computeClosure(group, name, scope, now);
+
+        scopes = this.closures.computeIfAbsent(name, n -> new ConcurrentHashMap<>());
+        if (scope.key instanceof ContextSet && scopes.size() >= MAX_CONTEXT_SCOPES) {
+            scopes.keySet().removeIf(key -> key instanceof ContextSet);
+        }
+        scopes.put(scope.key, closure);
+        if (this.version.get() != version) {
+            scopes.remove(scope.key, closure);
+        }
+        return closure;
+    }
+
+    /**
+     * Discards the cached entries for the given group, and every group
+     * which inherits from it.
+     *
+     * @param group the group
+     */
+    void invalidate(@NonNull G group) {
+        String name = getName(group);
+        this.version.incrementAndGet();
+        this.closures.remove(name);
+        this.closures.values().removeIf(scopes -> {
+            for (Closure<G> closure : scopes.values()) {
+                if (closure.names.contains(name)) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Discards all cached entries.
+     */
+    void invalidateAll() {
+        this.version.incrementAndGet();
+        this.closures.clear();
+    }
+
+    private Closure<G> computeClosure(G group, String name, Scope scope, Instant now) {
+        Map<String, G> visited = new LinkedHashMap<>();
+        visited.put(name, group);
+        Instant expiry = walk(this.membershipsFunction.apply(group), scope, now, visited, null);
+        visited.remove(name);
+
+        List<G> groups = Collections.unmodifiableList(new ArrayList<>(visited.values()));
+        return new Closure<>(group, groups, new HashSet<>(visited.keySet()), expiry);
+    }
+
+    /**
+     * Walks the given memberships depth first, adding each group reached to
+     * the visited map.
+     *
+     * @return the earliest time at which one of the memberships walked expires
+     */
+    private @Nullable Instant walk(Collection<GroupMembership> memberships, Scope scope, Instant now, Map<String, G> visited, @Nullable Instant expiry) {
+        for (GroupMembership membership : memberships) {
+            if (!scope.applies(membership, now)) {
+                continue;
+            }
+            G group = this.unwrapFunction.apply(membership.getGroup());
+            if (group == null || visited.putIfAbsent(getName(group), group) != null) {
+                continue;
+            }
+
+            Instant membershipExpiry = membership.queryProperty(Property.EXPIRY);
+            // the any scope follows expired memberships too, so its closures
+            // don't expire
+            if (!scope.any && membershipExpiry != null && (expiry == null || membershipExpiry.isBefore(expiry))) {
+                expiry = membershipExpiry;
+            }
+            expiry = walk(this.membershipsFunction.apply(group), scope, now, visited, expiry);
+        }
+        return expiry;
+    }
+
+    private String getName(G group) {
+        return this.nameFunction.apply(group).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The memberships followed by a walk: those which apply in a world, those
+     * which apply in a set of contexts, or every membership.
+     */
+    private static final class Scope {
+        static final Scope ANY = new Scope();
+
+        private final @Nullable String world;
+        private final @Nullable ContextSet contexts;
+        private final boolean any;
+
+        // the key closures are cached under
+        private final Object key;
+
+        Scope(@Nullable String world) {
+            this.world = world;
+            this.contexts = null;
+            this.any = false;
+            this.key = world == null ? GLOBAL : world.toLowerCase(Locale.ROOT);
+        }
+
+        Scope(@NonNull ContextSet contexts) {
+            this.world = null;
+            this.contexts = contexts;
+            this.any = false;
+            this.key = contexts;
+        }
+
+        private Scope() {
+            this.world = null;
+            this.contexts = null;
+            this.any = true;
+            this.key = this;
+        }
+
+        boolean applies(GroupMembership membership, Instant now) {
+            if (this.any) {
+                return true;
+            }
+            if (this.contexts != null) {
+                return PermissionResolver.applies(membership, this.contexts, now);
+            }
+            return PermissionResolver.applies(membership, this.world, now);
+        }
+    }
+
+    private static final class Closure<G> {
+        private final G group;
+        private final List<G> groups;
+        private final Set<String> names;
+        private final @Nullable Instant expiry;
+
+        Closure(G group, List<G> groups, Set<String> names, @Nullable Instant expiry) {
+            this.group = group;
+            this.groups = groups;
+            this.names = names;
+            this.expiry = expiry;
+        }
+    }
+}
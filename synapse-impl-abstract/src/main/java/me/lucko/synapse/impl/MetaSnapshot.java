@@ -0,0 +1,259 @@
+/*
+ * This file is part of synapse, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.synapse.impl;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The resolved prefix, suffix and metadata of a subject.
+ *
+ * <p>The prefix and suffix are resolved when the snapshot is created.
+ * Metadata values are resolved the first time each key is read (keys read
+ * together are resolved in one call to the backend), and remembered
+ * (including missing values) until the snapshot is discarded
+ * along with the rest of the subjects {@link SubjectCache}. Values are
+ * parsed into each of the typed forms at the same time, so typed reads
+ * don't parse the value again.</p>
+ */
+final class MetaSnapshot {
+    private static final int MAX_METADATA_ENTRIES = 256;
+
+    private final @Nullable String prefix;
+    private final @Nullable String suffix;
+    private final Source source;
+    private final Map<String, Value> metadata = new ConcurrentHashMap<>();
+    private volatile Map<String, String> allMetadata = null;
+
+    MetaSnapshot(@Nullable String prefix, @Nullable String suffix, @NonNull Source source) {
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.source = source;
+    }
+
+    @Nullable String getPrefix() {
+        return this.prefix;
+    }
+
+    @Nullable String getSuffix() {
+        return this.suffix;
+    }
+
+    @NonNull Value getMetadata(@NonNull String key) {
+        Value value = this.metadata.get(key);
+        if (value == null) {
+            Map<String, String> all = this.allMetadata;
+            String raw = all != null ? all.get(key) : this.source.getMetadata(key);
+            value = putMetadata(key, raw);
+        }
+        return value;
+    }
+
+    @NonNull Map<String, String> getMetadata(@NonNull Collection<String> keys) {
+        Map<String, String> all = this.allMetadata;
+        Map<String, String> values = new HashMap<>();
+        List<String> missing = null;
+        for (String key : keys) {
+            Value value = this.metadata.get(key);
+            if (value == null && all != null) {
+                value = putMetadata(key, all.get(key));
+            }
+            if (value == null) {
+                if (missing == null) {
+                    missing = new ArrayList<>();
+                }
+                missing.add(key);
+            } else if (value.raw != null) {
+                values.put(key, value.raw);
+            }
+        }
+
+        if (missing != null) {
+            Map<String, String> resolved = this.source.getMetadata(missing);
+            for (String key : missing) {
+                String raw = resolved.get(key);
+                putMetadata(key, raw);
+                if (raw != null) {
+                    values.put(key, raw);
+                }
+            }
+        }
+        return Collections.unmodifiableMap(values);
+    }
+
+    @NonNull Map<String, String> getAllMetadata() {
+        Map<String, String> all = this.allMetadata;
+        if (all == null) {
+            all = Collections.unmodifiableMap(new HashMap<>(this.source.getAllMetadata()));
+            this.allMetadata = all;
+        }
+        return all;
+    }
+
+    private Value putMetadata(String key, @Nullable String raw) {
+        Value value = raw == null ? Value.NONE : new Value(raw);
+        if (this.metadata.size() < MAX_METADATA_ENTRIES) {
+            this.metadata.put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Resolves metadata values from the backend.
+     */
+    interface Source {
+        @Nullable String getMetadata(@NonNull String key);
+
+        @NonNull Map<String, String> getMetadata(@NonNull Collection<String> keys);
+
+        @NonNull Map<String, String> getAllMetadata();
+    }
+
+    /**
+     * A metadata value, along with its parsed forms.
+     *
+     * <p>Each form is parsed on first use and then kept, so values which are
+     * only read as strings are never parsed.</p>
+     */
+    static final class Value {
+        static final Value NONE = new Value(null);
+
+        // marks a form which the value could not be parsed as
+        private static final Object INVALID = new Object();
+
+        private final @Nullable String raw;
+
+        // the parsed forms, INVALID, or null if not yet parsed
+        private volatile @Nullable Object longValue;
+        private volatile @Nullable Object doubleValue;
+        private volatile @Nullable Object durationValue;
+
+        private Value(@Nullable String raw) {
+            this.raw = raw;
+        }
+
+        private String trimmed() {
+            return this.raw == null ? "" : this.raw.trim();
+        }
+
+        private Object parseLong() {
+            Object value = this.longValue;
+            if (value == null) {
+                try {
+                    value = Long.parseLong(trimmed());
+                } catch (NumberFormatException e) {
+                    value = INVALID;
+                }
+                this.longValue = value;
+            }
+            return value;
+        }
+
+        private Object parseDouble() {
+            Object value = this.doubleValue;
+            if (value == null) {
+                String trimmed = trimmed();
+                try {
+                    value = trimmed.isEmpty() ? INVALID : Double.parseDouble(trimmed);
+                } catch (NumberFormatException e) {
+                    value = INVALID;
+                }
+                this.doubleValue = value;
+            }
+            return value;
+        }
+
+        private Object parseDuration() {
+            Object value = this.durationValue;
+            if (value == null) {
+                Object seconds = parseLong();
+                String trimmed = trimmed();
+                if (seconds != INVALID) {
+                    value = Duration.ofSeconds((Long) seconds);
+                } else if (!trimmed.isEmpty() && "Pp-+".indexOf(trimmed.charAt(0)) != -1) {
+                    try {
+                        value = Duration.parse(trimmed);
+                    } catch (DateTimeParseException e) {
+                        value = INVALID;
+                    }
+                } else {
+                    value = INVALID;
+                }
+                this.durationValue = value;
+            }
+            return value;
+        }
+
+        @Nullable String getString() {
+            return this.raw;
+        }
+
+        int getInt(int defaultValue) {
+            Object value = parseLong();
+            if (value == INVALID) {
+                return defaultValue;
+            }
+            long longValue = (Long) value;
+            return longValue == (int) longValue ? (int) longValue : defaultValue;
+        }
+
+        long getLong(long defaultValue) {
+            Object value = parseLong();
+            return value == INVALID ? defaultValue : (Long) value;
+        }
+
+        double getDouble(double defaultValue) {
+            Object value = parseDouble();
+            return value == INVALID ? defaultValue : (Double) value;
+        }
+
+        boolean getBoolean(boolean defaultValue) {
+            String value = trimmed();
+            if (value.equalsIgnoreCase("true")) {
+                return true;
+            } else if (value.equalsIgnoreCase("false")) {
+                return false;
+            } else {
+                return defaultValue;
+            }
+        }
+
+        @Nullable Duration getDuration() {
+            Object value = parseDuration();
+            return value == INVALID ? null : (Duration) value;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * This file is part of synapse, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.synapse.impl;
+
+import me.lucko.synapse.context.Context;
+import me.lucko.synapse.context.ContextSet;
+import me.lucko.synapse.permission.node.PermissionKey;
+import me.lucko.synapse.permission.node.PermissionNode;
+import me.lucko.synapse.permission.property.Property;
+import me.lucko.synapse.permission.property.PropertyQueryable;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolves permission checks against a flattened list of {@link PermissionNode}s
+ * using a prefix tree.
+ *
+ * <p>Nodes are added in order of precedence (the subjects own nodes, followed
+ * by those inherited from its groups). When more than one node matches a
+ * check, the one added first wins. A node ending in {@code .*} matches every
+ * permission below it, and the node {@code *} matches everything.</p>
+ *
+ * <p>Checks run in time proportional to the number of segments in the
+ * permission being checked, regardless of how many nodes were added.</p>
+ */
+final class PermissionResolver {
+    private static final String WILDCARD = "*";
+
+    private final @Nullable String world;
+    private final @Nullable ContextSet contexts;
+    private final @Nullable String server;
+    private final Instant now = Instant.now();
+    private final TreeNode root = new TreeNode();
+    private int index = 0;
+
+    /**
+     * Creates a resolver which only filters nodes by world and expiry.
+     *
+     * @param world the world
+     */
+    PermissionResolver(@Nullable String world) {
+        this.world = world;
+        this.contexts = null;
+        this.server = null;
+    }
+
+    private PermissionResolver(@NonNull ContextSet contexts) {
+        this.world = contexts.getValue(Context.WORLD_KEY);
+        this.contexts = contexts;
+        this.server = contexts.getValue(Context.SERVER_KEY);
+    }
+
+    /**
+     * Creates a resolver which filters nodes by world, server and required
+     * contexts, using the values in the given set.
+     *
+     * @param contexts the contexts
+     * @return the resolver
+     */
+    static PermissionResolver forContexts(@NonNull ContextSet contexts) {
+        return new PermissionResolver(contexts);
+    }
+
+    /**
+     * Gets the world this resolver was built for.
+     *
+     * @return the world
+     */
+    @Nullable String getWorld() {
+        return this.world;
+    }
+
+    /**
+     * Gets if a node or membership with the given properties applies in the
+     * world this resolver was built for.
+     *
+     * @param properties the properties
+     * @return true if the node applies
+     */
+    boolean applies(@NonNull PropertyQueryable properties) {
+        if (this.contexts == null) {
+            return applies(properties, this.world, this.now);
+        }
+        return applies(properties, this.contexts, this.world, this.server, this.now);
+    }
+
+    /**
+     * Gets if a node or membership with the given properties applies in the
+     * given contexts at the given time.
+     *
+     * @param properties the properties
+     * @param contexts the contexts
+     * @param now the current time
+     * @return true if the node applies
+     */
+    static boolean applies(@NonNull PropertyQueryable properties, @NonNull ContextSet contexts, @NonNull Instant now) {
+        return applies(properties, contexts, contexts.getValue(Context.WORLD_KEY), contexts.getValue(Context.SERVER_KEY), now);
+    }
+
+    private static boolean applies(PropertyQueryable properties, ContextSet contexts, @Nullable String world, @Nullable String server, Instant now) {
+        if (!applies(properties, world, now)) {
+            return false;
+        }
+        String requiredServer = properties.queryProperty(Property.REQUIRED_SERVER);
+        if (requiredServer != null && !requiredServer.equalsIgnoreCase(server)) {
+            return false;
+        }
+        Set<Context> requiredContexts = properties.queryProperty(Property.REQUIRED_CONTEXT);
+        return requiredContexts == null || ContextSet.of(requiredContexts).isSatisfiedBy(contexts);
+    }
+
+    /**
+     * Gets if a node or membership with the given properties applies in the
+     * given world at the given time.
+     *
+     * @param properties the properties
+     * @param world the world
+     * @param now the current time
+     * @return true if the node applies
+     */
+    static boolean applies(@NonNull PropertyQueryable properties, @Nullable String world, @NonNull Instant now) {
+        String requiredWorld = properties.queryProperty(Property.REQUIRED_WORLD);
+        if (requiredWorld != null && !requiredWorld.equalsIgnoreCase(world)) {
+            return false;
+        }
+        Instant expiry = properties.queryProperty(Property.EXPIRY);
+        return expiry == null || expiry.isAfter(now);
+    }
+
+    void add(@NonNull PermissionNode node) {
+        if (!applies(node)) {
+            return;
+        }
+
+        int index = this.index++;
+        boolean value = !node.queryProperty(Property.NEGATED);
+        String[] segments = split(node.getPermission());
+
+        TreeNode current = this.root;
+        int last = segments.length - 1;
+        for (int i = 0; i < last; i++) {
+            current = current.children.computeIfAbsent(segments[i], s -> new TreeNode());
+        }
+
+        if (segments[last].equals(WILDCARD)) {
+            current.setWildcard(index, value);
+        } else {
+            current.children.computeIfAbsent(segments[last], s -> new TreeNode()).setExact(index, value);
+        }
+    }
+
+    /**
+     * Checks the given permission, treating permissions which no node
+     * matched as unset.
+     *
+     * @param permission the permission
+     * @return the result of the check
+     */
+    boolean check(@NonNull String permission) {
+        return resolve(Arrays.asList(split(permission))) == Boolean.TRUE;
+    }
+
+    /**
+     * Checks the given permission, treating permissions which no node
+     * matched as unset.
+     *
+     * @param permission the permission
+     * @return the result of the check
+     */
+    boolean check(@NonNull PermissionKey permission) {
+        return resolve(permission.getSegments()) == Boolean.TRUE;
+    }
+
+    /**
+     * Resolves the given permission.
+     *
+     * @param segments the segments of the lower case permission
+     * @return the result, or null if no node matched
+     */
+    @Nullable Boolean resolve(@NonNull List<String> segments) {
+        int bestIndex = Integer.MAX_VALUE;
+        boolean bestValue = false;
+
+        TreeNode current = this.root;
+        int last = segments.size() - 1;
+        for (int i = 0; i <= last && current != null; i++) {
+            // wildcards match anything deeper than the node they are set on
+            if (current.wildcardIndex < bestIndex) {
+                bestIndex = current.wildcardIndex;
+                bestValue = current.wildcardValue;
+            }
+
+            current = current.children.get(segments.get(i));
+            if (i == last && current != null && current.exactIndex < bestIndex) {
+                bestIndex = current.exactIndex;
+                bestValue = current.exactValue;
+            }
+        }
+
+        return bestIndex == Integer.MAX_VALUE ? null : bestValue;
+    }
+
+    private static String[] split(String permission) {
+        return permission.toLowerCase(Locale.ROOT).split("\\.", -1);
+    }
+
+    private static final class TreeNode {
+        private final Map<String, TreeNode> children = new HashMap<>();
+        private int exactIndex = Integer.MAX_VALUE;
+        private boolean exactValue;
+        private int wildcardIndex = Integer.MAX_VALUE;
+        private boolean wildcardValue;
+
+        void setExact(int index, boolean value) {
+            if (index < this.exactIndex) {
+                this.exactIndex = index;
+                this.exactValue = value;
+            }
+        }
+
+        void setWildcard(int index, boolean value) {
+            if (index < this.wildcardIndex) {
+                this.wildcardIndex = index;
+                this.wildcardValue = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * This file is part of synapse, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.synapse.impl;
+
+import me.lucko.synapse.context.Context;
+import me.lucko.synapse.context.ContextCalculator;
+import me.lucko.synapse.context.ContextService;
+import me.lucko.synapse.context.ContextSet;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerGameModeChangeEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.server.PluginDisableEvent;
+import org.bukkit.plugin.Plugin;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * A {@link ContextService} which caches the contexts computed for each player.
+ *
+ * <p>Calculators are only run when a player is first queried, and again
+ * after their contexts are invalidated. Contexts are invalidated when the
+ * player changes world or game mode, when a context is registered or
+ * unregistered, and when {@link #refreshContexts(Player)} is called.</p>
+ */
+public class SimpleContextService implements ContextService {
+    private final Plugin plugin;
+    private final Map<String, Registration> calculators = new ConcurrentHashMap<>();
+    private final Map<UUID, CachedContexts> contexts = new ConcurrentHashMap<>();
+
+    public SimpleContextService(@NonNull Plugin plugin) {
+        this.plugin = plugin;
+        this.plugin.getServer().getPluginManager().registerEvents(new ContextListener(), this.plugin);
+    }
+
+    @Override
+    public void registerContext(@NonNull Plugin plugin, @NonNull String key, @NonNull ContextCalculator calculator) {
+        this.calculators.put(key, new Registration(plugin, calculator));
+        this.contexts.clear();
+    }
+
+    @Override
+    public void unregisterContext(@NonNull String key) {
+        if (this.calculators.remove(key) != null) {
+            this.contexts.clear();
+        }
+    }
+
+    @Override
+    public @NonNull ContextSet queryContexts(@NonNull Player player) {
+        if (!player.isOnline()) {
+            // don't cache anything for players who have already quit
+            return calculateContexts(player);
+        }
+
+        CachedContexts cached = this.contexts.computeIfAbsent(player.getUniqueId(), u -> new CachedContexts());
+        ContextSet result = cached.contexts;
+        if (result == null) {
+            synchronized (cached) {
+                result = cached.contexts;
+                if (result == null) {
+                    result = calculateContexts(player);
+                    cached.contexts = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void refreshContexts(@NonNull Player player) {
+        this.contexts.remove(player.getUniqueId());
+    }
+
+    private ContextSet calculateContexts(Player player) {
+        Set<Context> result = new HashSet<>();
+        for (Map.Entry<String, Registration> entry : this.calculators.entrySet()) {
+            String key = entry.getKey();
+            Registration registration = entry.getValue();
+            try {
+                registration.calculator.calculate(player, value -> result.add(Context.of(key, value)));
+            } catch (Throwable e) {
+                registration.plugin.getLogger().log(Level.SEVERE, "Exception thrown by context calculator for '" + key + "'", e);
+            }
+        }
+        return ContextSet.of(result);
+    }
+
+    private static final class Registration {
+        private final Plugin plugin;
+        private final ContextCalculator calculator;
+
+        Registration(Plugin plugin, ContextCalculator calculator) {
+            this.plugin = plugin;
+            this.calculator = calculator;
+        }
+    }
+
+    /**
+     * Holds the contexts computed for a player. Instances are discarded
+     * rather than cleared, so a result computed concurrently with an
+     * invalidation is never observed.
+     */
+    private static final class CachedContexts {
+        private volatile ContextSet contexts;
+    }
+
+    private final class ContextListener implements Listener {
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onWorldChange(PlayerChangedWorldEvent e) {
+            refreshContexts(e.getPlayer());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+        public void onGameModeChange(PlayerGameModeChangeEvent e) {
+            // the event is called before the game mode changes, so contexts
+            // queried by other listeners would still see the old one
+            Player player = e.getPlayer();
+            refreshContexts(player);
+            SimpleContextService.this.plugin.getServer().getScheduler().runTask(SimpleContextService.this.plugin, () -> refreshContexts(player));
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onQuit(PlayerQuitEvent e) {
+            // the player is still online while the event is called, so other
+            // listeners querying them would cache their contexts again
+            UUID uniqueId = e.getPlayer().getUniqueId();
+            SimpleContextService.this.contexts.remove(uniqueId);
+            SimpleContextService.this.plugin.getServer().getScheduler().runTask(SimpleContextService.this.plugin, () -> {
+                if (SimpleContextService.this.plugin.getServer().getPlayer(uniqueId) == null) {
+                    SimpleContextService.this.contexts.remove(uniqueId);
+                }
+            });
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onPluginDisable(PluginDisableEvent e) {
+            Plugin plugin = e.getPlugin();
+            if (SimpleContextService.this.calculators.values().removeIf(registration -> registration.plugin == plugin)) {
+                SimpleContextService.this.contexts.clear();
+            }
+        }
+    }
+}
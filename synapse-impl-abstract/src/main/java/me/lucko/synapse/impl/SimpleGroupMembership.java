@@ -29,13 +29,10 @@ import me.lucko.synapse.permission.membership.GroupMembership;
 import me.lucko.synapse.permission.property.Property;
 import me.lucko.synapse.permission.subject.Group;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class SimpleGroupMembership extends AbstractPropertyQueryable implements GroupMembership {
     private final Group group;
 
-    SimpleGroupMembership(Group group, Map<Property<?>, Object> properties) {
+    SimpleGroupMembership(Group group, Object[] properties) {
         super(properties);
         this.group = group;
     }
@@ -47,14 +44,14 @@ public class SimpleGroupMembership extends AbstractPropertyQueryable implements
 
     public static final class Builder {
         private final Group group;
-        private final Map<Property<?>, Object> properties = new HashMap<>();
+        private Object[] properties = NO_PROPERTIES;
 
         public Builder(Group group) {
             this.group = group;
         }
 
         public <T> Builder withProp(Property<T> property, T value) {
-            this.properties.put(property, value);
+            this.properties = withProperty(this.properties, property, value);
             return this;
         }
 
@@ -28,13 +28,10 @@ package me.lucko.synapse.impl;
 import me.lucko.synapse.permission.node.PermissionNode;
 import me.lucko.synapse.permission.property.Property;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class SimplePermissionNode extends AbstractPropertyQueryable implements PermissionNode {
     private final String permission;
 
-    SimplePermissionNode(String permission, Map<Property<?>, Object> properties) {
+    SimplePermissionNode(String permission, Object[] properties) {
         super(properties);
         this.permission = permission;
     }
@@ -46,14 +43,14 @@ public class SimplePermissionNode extends AbstractPropertyQueryable implements P
 
     public static final class Builder {
         private final String permission;
-        private final Map<Property<?>, Object> properties = new HashMap<>();
+        private Object[] properties = NO_PROPERTIES;
 
         public Builder(String permission) {
             this.permission = permission;
         }
 
         public <T> Builder withProp(Property<T> property, T value) {
-            this.properties.put(property, value);
+            this.properties = withProperty(this.properties, property, value);
             return this;
         }
 
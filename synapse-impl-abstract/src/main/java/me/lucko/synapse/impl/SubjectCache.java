@@ -0,0 +1,172 @@
+/*
+ * This file is part of synapse, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.synapse.impl;
+
+import me.lucko.synapse.context.ContextSet;
+import me.lucko.synapse.permission.membership.GroupMembership;
+import me.lucko.synapse.permission.node.PermissionKey;
+import me.lucko.synapse.permission.node.PermissionNode;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the results of lookups made against a single subject.
+ *
+ * <p>Instances are discarded rather than cleared when the underlying data
+ * changes, so a result computed concurrently with an invalidation is written
+ * into the stale instance and never observed.</p>
+ */
+final class SubjectCache {
+    private static final int MAX_PERMISSION_ENTRIES = 4096;
+    private static final int MAX_CONTEXT_ENTRIES = 64;
+
+    private static final byte UNKNOWN = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+
+    private final Map<String, Boolean> permissions = new ConcurrentHashMap<>();
+    // results for PermissionKeys, indexed by key id. races between writers
+    // can only lose results, which will then be recomputed
+    private volatile byte[] keyedPermissions = new byte[0];
+    private volatile PermissionResolver resolver;
+    private volatile Collection<PermissionNode> permissionsSnapshot;
+    private volatile Collection<GroupMembership> groupsSnapshot;
+    private volatile MetaSnapshot metaSnapshot;
+    // results of checks made in specific contexts
+    private final Map<ContextSet, ContextualResults> contextual = new ConcurrentHashMap<>();
+
+    @Nullable Boolean getPermission(@NonNull String permission) {
+        return this.permissions.get(permission);
+    }
+
+    void putPermission(@NonNull String permission, boolean result) {
+        // start again when full, rather than refusing new entries, so the
+        // permissions checked now are cached even if many one-off checks
+        // were made earlier
+        if (this.permissions.size() >= MAX_PERMISSION_ENTRIES) {
+            this.permissions.clear();
+        }
+        this.permissions.put(permission, result);
+    }
+
+    @Nullable Boolean getPermission(@NonNull PermissionKey permission) {
+        byte[] results = this.keyedPermissions;
+        int id = permission.getId();
+        if (id >= results.length || results[id] == UNKNOWN) {
+            return null;
+        }
+        return results[id] == TRUE;
+    }
+
+    void putPermission(@NonNull PermissionKey permission, boolean result) {
+        byte[] results = this.keyedPermissions;
+        int id = permission.getId();
+        if (id >= results.length) {
+            results = Arrays.copyOf(results, Math.max(id + 1, results.length * 2));
+        }
+        results[id] = result ? TRUE : FALSE;
+        this.keyedPermissions = results;
+    }
+
+    @Nullable Boolean getPermission(@NonNull ContextSet contexts, @NonNull String permission) {
+        ContextualResults results = this.contextual.get(contexts);
+        return results == null ? null : results.permissions.get(permission);
+    }
+
+    void putPermission(@NonNull ContextSet contexts, @NonNull String permission, boolean result) {
+        Map<String, Boolean> permissions = getContextualResults(contexts).permissions;
+        if (permissions.size() >= MAX_PERMISSION_ENTRIES) {
+            permissions.clear();
+        }
+        permissions.put(permission, result);
+    }
+
+    @Nullable PermissionResolver getContextualResolver(@NonNull ContextSet contexts) {
+        ContextualResults results = this.contextual.get(contexts);
+        return results == null ? null : results.resolver;
+    }
+
+    void setContextualResolver(@NonNull ContextSet contexts, @NonNull PermissionResolver resolver) {
+        getContextualResults(contexts).resolver = resolver;
+    }
+
+    private ContextualResults getContextualResults(ContextSet contexts) {
+        ContextualResults results = this.contextual.get(contexts);
+        if (results == null) {
+            // start again when full, as with the permissions above
+            if (this.contextual.size() >= MAX_CONTEXT_ENTRIES) {
+                this.contextual.clear();
+            }
+            results = this.contextual.computeIfAbsent(contexts, c -> new ContextualResults());
+        }
+        return results;
+    }
+
+    @Nullable PermissionResolver getResolver(@Nullable String world) {
+        PermissionResolver resolver = this.resolver;
+        return resolver != null && Objects.equals(resolver.getWorld(), world) ? resolver : null;
+    }
+
+    void setResolver(@NonNull PermissionResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    @Nullable Collection<PermissionNode> getPermissionsSnapshot() {
+        return this.permissionsSnapshot;
+    }
+
+    void setPermissionsSnapshot(@NonNull Collection<PermissionNode> permissions) {
+        this.permissionsSnapshot = permissions;
+    }
+
+    @Nullable Collection<GroupMembership> getGroupsSnapshot() {
+        return this.groupsSnapshot;
+    }
+
+    void setGroupsSnapshot(@NonNull Collection<GroupMembership> groups) {
+        this.groupsSnapshot = groups;
+    }
+
+    @Nullable MetaSnapshot getMetaSnapshot() {
+        return this.metaSnapshot;
+    }
+
+    void setMetaSnapshot(@NonNull MetaSnapshot meta) {
+        this.metaSnapshot = meta;
+    }
+
+    private static final class ContextualResults {
+        private final Map<String, Boolean> permissions = new ConcurrentHashMap<>();
+        private volatile PermissionResolver resolver;
+    }
+}
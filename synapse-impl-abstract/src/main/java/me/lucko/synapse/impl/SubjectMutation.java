@@ -0,0 +1,82 @@
+/*
+ * This file is part of synapse, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.synapse.impl;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A single change made as part of a batch.
+ */
+public final class SubjectMutation {
+    private final Type type;
+    private final String target;
+    private final String value;
+    private final PropertyExtractor properties;
+
+    SubjectMutation(Type type, String target, String value, PropertyExtractor properties) {
+        this.type = type;
+        this.target = target;
+        this.value = value;
+        this.properties = properties;
+    }
+
+    public @NonNull Type getType() {
+        return this.type;
+    }
+
+    /**
+     * Gets the permission, group name or metadata key the change applies to.
+     *
+     * @return the target, or null for prefix and suffix changes
+     */
+    public @Nullable String getTarget() {
+        return this.target;
+    }
+
+    /**
+     * Gets the prefix, suffix or metadata value being set.
+     *
+     * @return the value, or null for other changes
+     */
+    public @Nullable String getValue() {
+        return this.value;
+    }
+
+    public @NonNull PropertyExtractor getProperties() {
+        return this.properties;
+    }
+
+    public enum Type {
+        SET_PERMISSION,
+        UNSET_PERMISSION,
+        ADD_GROUP,
+        REMOVE_GROUP,
+        SET_PREFIX,
+        SET_SUFFIX,
+        SET_METADATA
+    }
+}
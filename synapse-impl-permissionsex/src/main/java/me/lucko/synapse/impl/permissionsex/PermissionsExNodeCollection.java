@@ -0,0 +1,153 @@
+/*
+ * This file is part of synapse, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.synapse.impl.permissionsex;
+
+import me.lucko.synapse.impl.SimplePermissionNode;
+import me.lucko.synapse.permission.node.PermissionNode;
+import me.lucko.synapse.permission.property.Property;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.time.Instant;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable collection of the {@link PermissionNode}s held by a
+ * PermissionsEx entity.
+ *
+ * <p>The raw permission strings are captured when the collection is created,
+ * but {@link PermissionNode} instances are only built for the elements that
+ * are actually visited.</p>
+ */
+final class PermissionsExNodeCollection extends AbstractCollection<PermissionNode> {
+    private static final long PERMANENT = -1;
+
+    private final String[] permissions;
+    private final String[] worlds;
+    private final long[] expiries;
+    private final PermissionNode[] nodes;
+
+    PermissionsExNodeCollection(Map<String, List<String>> permanentPermissions, Map<String, List<String>> timedPermissions, Map<String, Long> timedPermissionsTime) {
+        // copy each list once before sizing the arrays, as PEX may change
+        // the maps while the collection is being built
+        List<Map.Entry<String, String[]>> permanent = copy(permanentPermissions);
+        List<Map.Entry<String, String[]>> timed = copy(timedPermissions);
+
+        int size = 0;
+        for (Map.Entry<String, String[]> entry : permanent) {
+            size += entry.getValue().length;
+        }
+        for (Map.Entry<String, String[]> entry : timed) {
+            size += entry.getValue().length;
+        }
+
+        this.permissions = new String[size];
+        this.worlds = new String[size];
+        this.expiries = new long[size];
+        this.nodes = new PermissionNode[size];
+
+        int i = 0;
+        for (Map.Entry<String, String[]> entry : permanent) {
+            for (String permission : entry.getValue()) {
+                this.permissions[i] = permission;
+                this.worlds[i] = entry.getKey();
+                this.expiries[i] = PERMANENT;
+                i++;
+            }
+        }
+        for (Map.Entry<String, String[]> entry : timed) {
+            String world = entry.getKey();
+            for (String permission : entry.getValue()) {
+                this.permissions[i] = permission;
+                this.worlds[i] = world;
+                this.expiries[i] = timedPermissionsTime.getOrDefault((world == null ? "" : world + ":") + permission, 0L);
+                i++;
+            }
+        }
+    }
+
+    private static List<Map.Entry<String, String[]>> copy(Map<String, List<String>> permissions) {
+        List<Map.Entry<String, String[]>> copy = new ArrayList<>(permissions.size());
+        for (Map.Entry<String, List<String>> entry : permissions.entrySet()) {
+            copy.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().toArray(new String[0])));
+        }
+        return copy;
+    }
+
+    private PermissionNode getNode(int index) {
+        // races here can only result in the same node being built twice
+        PermissionNode node = this.nodes[index];
+        if (node == null) {
+            String permission = this.permissions[index];
+            SimplePermissionNode.Builder builder;
+            if (permission.startsWith("-")) {
+                builder = new SimplePermissionNode.Builder(permission.substring(1)).withProp(Property.NEGATED, true);
+            } else {
+                builder = new SimplePermissionNode.Builder(permission);
+            }
+            if (this.worlds[index] != null) {
+                builder.withProp(Property.REQUIRED_WORLD, this.worlds[index]);
+            }
+            if (this.expiries[index] != PERMANENT) {
+                builder.withProp(Property.EXPIRY, Instant.ofEpochSecond(this.expiries[index]));
+            }
+            node = builder.build();
+            this.nodes[index] = node;
+        }
+        return node;
+    }
+
+    @Override
+    public int size() {
+        return this.permissions.length;
+    }
+
+    @Override
+    public @NonNull Iterator<PermissionNode> iterator() {
+        return new Iterator<PermissionNode>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return this.index < PermissionsExNodeCollection.this.permissions.length;
+            }
+
+            @Override
+            public PermissionNode next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return getNode(this.index++);
+            }
+        };
+    }
+}
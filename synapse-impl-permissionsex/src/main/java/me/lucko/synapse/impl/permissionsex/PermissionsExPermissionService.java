@@ -25,10 +25,12 @@
 
 package me.lucko.synapse.impl.permissionsex;
 
+import me.lucko.synapse.context.Context;
+import me.lucko.synapse.context.ContextSet;
 import me.lucko.synapse.impl.AbstractPermissionService;
 import me.lucko.synapse.impl.PropertyExtractor;
 import me.lucko.synapse.impl.SimpleGroupMembership;
-import me.lucko.synapse.impl.SimplePermissionNode;
+import me.lucko.synapse.impl.SubjectMutation;
 import me.lucko.synapse.permission.membership.GroupMembership;
 import me.lucko.synapse.permission.node.PermissionNode;
 import me.lucko.synapse.permission.property.Property;
@@ -36,6 +38,12 @@ import me.lucko.synapse.permission.property.PropertyScope;
 import me.lucko.synapse.permission.subject.SubjectType;
 
 import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
@@ -45,45 +53,71 @@ import ru.tehkode.permissions.PermissionManager;
 import ru.tehkode.permissions.PermissionUser;
 import ru.tehkode.permissions.PermissionsData;
 import ru.tehkode.permissions.bukkit.PermissionsEx;
+import ru.tehkode.permissions.events.PermissionEntityEvent;
+import ru.tehkode.permissions.events.PermissionSystemEvent;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 public class PermissionsExPermissionService extends AbstractPermissionService<PermissionUser, PermissionGroup> {
-    private static final Method GET_DATA_METHOD;
-    private static final Field TIMED_PERMISSIONS_FIELD;
-    private static final Field TIMED_PERMISSIONS_TIME_FIELD;
-    private static final Field NATIVE_INTERFACE_FIELD;
+    // accessed via method handles rather than core reflection, so the JIT is
+    // able to inline the calls
+    private static final MethodHandle GET_DATA_METHOD;
+    private static final MethodHandle TIMED_PERMISSIONS_FIELD;
+    private static final MethodHandle TIMED_PERMISSIONS_TIME_FIELD;
+    private static final MethodHandle NATIVE_INTERFACE_FIELD;
     static {
         try {
-            GET_DATA_METHOD = PermissionEntity.class.getDeclaredMethod("getData");
-            GET_DATA_METHOD.setAccessible(true);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
 
-            TIMED_PERMISSIONS_FIELD = PermissionEntity.class.getDeclaredField("timedPermissions");
-            TIMED_PERMISSIONS_FIELD.setAccessible(true);
+            Method getDataMethod = PermissionEntity.class.getDeclaredMethod("getData");
+            getDataMethod.setAccessible(true);
+            GET_DATA_METHOD = lookup.unreflect(getDataMethod);
 
-            TIMED_PERMISSIONS_TIME_FIELD = PermissionEntity.class.getDeclaredField("timedPermissionsTime");
-            TIMED_PERMISSIONS_TIME_FIELD.setAccessible(true);
+            Field timedPermissionsField = PermissionEntity.class.getDeclaredField("timedPermissions");
+            timedPermissionsField.setAccessible(true);
+            TIMED_PERMISSIONS_FIELD = lookup.unreflectGetter(timedPermissionsField);
 
-            NATIVE_INTERFACE_FIELD = PermissionManager.class.getDeclaredField("nativeI");
-            NATIVE_INTERFACE_FIELD.setAccessible(true);
-        } catch (NoSuchMethodException | NoSuchFieldException e) {
+            Field timedPermissionsTimeField = PermissionEntity.class.getDeclaredField("timedPermissionsTime");
+            timedPermissionsTimeField.setAccessible(true);
+            TIMED_PERMISSIONS_TIME_FIELD = lookup.unreflectGetter(timedPermissionsTimeField);
+
+            Field nativeInterfaceField = PermissionManager.class.getDeclaredField("nativeI");
+            nativeInterfaceField.setAccessible(true);
+            NATIVE_INTERFACE_FIELD = lookup.unreflectGetter(nativeInterfaceField);
+        } catch (ReflectiveOperationException e) {
             throw new ExceptionInInitializerError(e);
         }
     }
 
     private final PermissionsEx pex;
 
+    // case-insensitive index of the loaded groups, rebuilt lazily after PEX
+    // reports a change. only valid while its version matches groupIndexVersion,
+    // so an index built from data read before an invalidation is never used.
+    private volatile GroupIndex groupIndex = null;
+    private final AtomicLong groupIndexVersion = new AtomicLong();
+
     public PermissionsExPermissionService(PermissionsEx pex) {
         this.pex = pex;
+        this.pex.getServer().getPluginManager().registerEvents(new PermissionsExListener(), this.pex);
     }
 
     @Override
@@ -127,18 +161,42 @@ public class PermissionsExPermissionService extends AbstractPermissionService<Pe
 
     @Override
     protected @NonNull Iterable<PermissionGroup> getGroups() {
-        return this.pex.getPermissionsManager().getGroupList();
+        return getGroupIndex().groups;
     }
 
     @Override
     protected @Nullable PermissionGroup getGroup(@NonNull String name) {
-        return this.pex.getPermissionsManager().getGroupNames().contains(name) ?
-                this.pex.getPermissionsManager().getGroup(name) : null;
+        return getGroupIndex().byName.get(name.toLowerCase(Locale.ROOT));
     }
 
     @Override
     protected @NonNull CompletableFuture<PermissionGroup> loadGroup(@NonNull String name) {
-        return CompletableFuture.completedFuture(this.pex.getPermissionsManager().getGroup(name));
+        PermissionGroup group = getGroup(name);
+        if (group == null) {
+            // PEX creates the group on demand
+            group = this.pex.getPermissionsManager().getGroup(name);
+            invalidateGroupIndex();
+        }
+        return CompletableFuture.completedFuture(group);
+    }
+
+    private GroupIndex getGroupIndex() {
+        long version = this.groupIndexVersion.get();
+        GroupIndex index = this.groupIndex;
+        if (index == null || index.version != version) {
+            index = new GroupIndex(this.pex.getPermissionsManager().getGroupList(), version);
+            // only publish if nothing was invalidated during the rebuild. one
+            // invalidated between here and the write is caught by the version
+            // check above on the next call.
+            if (this.groupIndexVersion.get() == version) {
+                this.groupIndex = index;
+            }
+        }
+        return index;
+    }
+
+    private void invalidateGroupIndex() {
+        this.groupIndexVersion.incrementAndGet();
     }
 
     @Override
@@ -161,11 +219,22 @@ public class PermissionsExPermissionService extends AbstractPermissionService<Pe
         return getGroupMemberships(user);
     }
 
+    @Override
+    protected @Nullable Instant userGetNextExpiry(@NonNull PermissionUser user) {
+        return getNextExpiry(user);
+    }
+
     @Override
     protected boolean userCheckPermission(@NonNull PermissionUser user, @NonNull String permission) {
         return user.has(permission);
     }
 
+    @Override
+    protected boolean userCheckPermission(@NonNull PermissionUser user, @NonNull String permission, @NonNull ContextSet contexts) {
+        // PEX only supports world specific settings
+        return user.has(permission, contexts.getValue(Context.WORLD_KEY));
+    }
+
     @Override
     protected @Nullable String userGetPrefix(@NonNull PermissionUser user) {
         return user.getPrefix();
@@ -181,6 +250,21 @@ public class PermissionsExPermissionService extends AbstractPermissionService<Pe
         return user.getOption(key);
     }
 
+    @Override
+    protected @NonNull Map<String, String> userGetMetadata(@NonNull PermissionUser user, @NonNull Collection<String> keys) {
+        return getOptions(user, keys);
+    }
+
+    @Override
+    protected @NonNull Map<String, String> userGetAllMetadata(@NonNull PermissionUser user) {
+        return getOptions(user, null);
+    }
+
+    // mutations are applied synchronously on the calling thread. PEX saves
+    // each change inside the mutator call itself, with no separate
+    // persistence step, so the save can't be moved off-thread without also
+    // moving the mutation - and PEX entities are not thread safe.
+
     @Override
     protected @NonNull CompletableFuture<Void> userSetPermission(@NonNull PermissionUser user, @NonNull String permission, @NonNull PropertyExtractor properties) {
         boolean negated = properties.get(Property.NEGATED);
@@ -256,6 +340,11 @@ public class PermissionsExPermissionService extends AbstractPermissionService<Pe
         return CompletableFuture.completedFuture(null);
     }
 
+    @Override
+    protected @NonNull CompletableFuture<Void> userApplyBatch(@NonNull PermissionUser user, @NonNull List<SubjectMutation> mutations) {
+        return applyBatch(user, mutations, others -> super.userApplyBatch(user, others));
+    }
+
     @Override
     protected @NonNull String groupGetName(PermissionGroup group) {
         return group.getName();
@@ -276,11 +365,21 @@ public class PermissionsExPermissionService extends AbstractPermissionService<Pe
         return getGroupMemberships(group);
     }
 
+    @Override
+    protected @Nullable Instant groupGetNextExpiry(@NonNull PermissionGroup group) {
+        return getNextExpiry(group);
+    }
+
     @Override
     protected boolean groupCheckPermission(@NonNull PermissionGroup group, @NonNull String permission) {
         return group.has(permission);
     }
 
+    @Override
+    protected boolean groupCheckPermission(@NonNull PermissionGroup group, @NonNull String permission, @NonNull ContextSet contexts) {
+        return group.has(permission, contexts.getValue(Context.WORLD_KEY));
+    }
+
     @Override
     protected @Nullable String groupGetPrefix(@NonNull PermissionGroup group) {
         return group.getPrefix();
@@ -296,6 +395,16 @@ public class PermissionsExPermissionService extends AbstractPermissionService<Pe
         return group.getOption(key);
     }
 
+    @Override
+    protected @NonNull Map<String, String> groupGetMetadata(@NonNull PermissionGroup group, @NonNull Collection<String> keys) {
+        return getOptions(group, keys);
+    }
+
+    @Override
+    protected @NonNull Map<String, String> groupGetAllMetadata(@NonNull PermissionGroup group) {
+        return getOptions(group, null);
+    }
+
     @Override
     protected @NonNull CompletableFuture<Void> groupSetPermission(@NonNull PermissionGroup group, @NonNull String permission, @NonNull PropertyExtractor properties) {
         boolean negated = properties.get(Property.NEGATED);
@@ -385,61 +494,117 @@ public class PermissionsExPermissionService extends AbstractPermissionService<Pe
         return CompletableFuture.completedFuture(null);
     }
 
-    private SimplePermissionNode.@NonNull Builder buildPossiblyNegatedPermission(@NonNull String permission) {
-        if (permission.startsWith("-")) {
-            return new SimplePermissionNode.Builder(permission.substring(1)).withProp(Property.NEGATED, true);
-        } else {
-            return new SimplePermissionNode.Builder(permission);
-        }
-    }
+    @Override
+    protected @NonNull CompletableFuture<Void> groupApplyBatch(@NonNull PermissionGroup group, @NonNull List<SubjectMutation> mutations) {
+        return applyBatch(group, mutations, others -> super.groupApplyBatch(group, others));
+    }
+
+    /**
+     * Applies a batch in order, coalescing each run of consecutive permanent
+     * permission changes into a single call to
+     * {@link PermissionEntity#setPermissions(List, String)} per world,
+     * instead of saving the entity after each change.
+     *
+     * @param entity the entity
+     * @param mutations the batch
+     * @param fallback applies the other changes through the individual hooks
+     * @return a future which completes once the changes have been applied
+     */
+    private CompletableFuture<Void> applyBatch(PermissionEntity entity, List<SubjectMutation> mutations, Function<List<SubjectMutation>, CompletableFuture<Void>> fallback) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        Map<String, List<String>> permissions = new HashMap<>();
+        List<SubjectMutation> others = new ArrayList<>();
+
+        for (SubjectMutation mutation : mutations) {
+            SubjectMutation.Type type = mutation.getType();
+            PropertyExtractor properties = mutation.getProperties();
+            if ((type != SubjectMutation.Type.SET_PERMISSION && type != SubjectMutation.Type.UNSET_PERMISSION) || properties.get(Property.EXPIRY) != null) {
+                setPermissions(entity, permissions);
+                others.add(mutation);
+                continue;
+            }
+            if (!others.isEmpty()) {
+                futures.add(fallback.apply(new ArrayList<>(others)));
+                others.clear();
+            }
 
-    private Collection<PermissionNode> getPermissions(PermissionEntity entity) {
-        List<PermissionNode> nodes = new ArrayList<>();
+            String permission = mutation.getTarget();
+            if (properties.get(Property.NEGATED)) {
+                permission = "-" + permission;
+            }
 
-        Map<String, List<String>> permanentPermissions;
-        try {
-            PermissionsData data = (PermissionsData) GET_DATA_METHOD.invoke(entity);
-            permanentPermissions = data.getPermissionsMap();
-        } catch (ReflectiveOperationException e) {
-            throw new RuntimeException(e);
-        }
+            List<String> worldPermissions = permissions.computeIfAbsent(properties.get(Property.REQUIRED_WORLD), world -> {
+                List<String> current = entity.getOwnPermissions(world);
+                return current == null ? new ArrayList<>() : new ArrayList<>(current);
+            });
 
-        for (Map.Entry<String, List<String>> entry : permanentPermissions.entrySet()) {
-            String world = entry.getKey();
-            for (String node : entry.getValue()) {
-                SimplePermissionNode.Builder builder = buildPossiblyNegatedPermission(node);
-                if (world != null) {
-                    builder.withProp(Property.REQUIRED_WORLD, world);
-                }
-                nodes.add(builder.build());
+            // mirror PermissionEntity#addPermission, which moves the node to the front
+            worldPermissions.remove(permission);
+            if (type == SubjectMutation.Type.SET_PERMISSION) {
+                worldPermissions.add(0, permission);
             }
         }
 
+        setPermissions(entity, permissions);
+        if (!others.isEmpty()) {
+            futures.add(fallback.apply(others));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private static void setPermissions(PermissionEntity entity, Map<String, List<String>> permissions) {
+        for (Map.Entry<String, List<String>> entry : permissions.entrySet()) {
+            entity.setPermissions(entry.getValue(), entry.getKey());
+        }
+        permissions.clear();
+    }
+
+    private Collection<PermissionNode> getPermissions(PermissionEntity entity) {
+        Map<String, List<String>> permanentPermissions;
         Map<String, List<String>> timedPermissions;
         Map<String, Long> timedPermissionsTime;
 
         try {
-            timedPermissions = (Map<String, List<String>>) TIMED_PERMISSIONS_FIELD.get(entity);
-            timedPermissionsTime = (Map<String, Long>) TIMED_PERMISSIONS_TIME_FIELD.get(entity);
-        } catch (ReflectiveOperationException e) {
+            PermissionsData data = (PermissionsData) GET_DATA_METHOD.invokeExact(entity);
+            permanentPermissions = data.getPermissionsMap();
+            timedPermissions = (Map<String, List<String>>) TIMED_PERMISSIONS_FIELD.invokeExact(entity);
+            timedPermissionsTime = (Map<String, Long>) TIMED_PERMISSIONS_TIME_FIELD.invokeExact(entity);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
             throw new RuntimeException(e);
         }
 
-        for (Map.Entry<String, List<String>> worldData : timedPermissions.entrySet()) {
-            String world = worldData.getKey();
-            for (String node : worldData.getValue()) {
-                long expiry = timedPermissionsTime.getOrDefault(world == null ? "" : world + ":" + node, 0L);
+        return new PermissionsExNodeCollection(permanentPermissions, timedPermissions, timedPermissionsTime);
+    }
 
-                SimplePermissionNode.Builder builder = buildPossiblyNegatedPermission(node);
-                if (world != null) {
-                    builder.withProp(Property.REQUIRED_WORLD, world);
-                }
-                builder.withProp(Property.EXPIRY, Instant.ofEpochSecond(expiry));
-                nodes.add(builder.build());
+    /**
+     * Resolves the global options for the entity in a single walk over it and
+     * its parents, following the same precedence as
+     * {@link PermissionEntity#getOption(String)}.
+     *
+     * @param entity the entity
+     * @param keys the keys to resolve, or null to resolve all options
+     * @return the resolved options
+     */
+    private Map<String, String> getOptions(PermissionEntity entity, @Nullable Collection<String> keys) {
+        Map<String, String> options = new HashMap<>();
+        collectOptions(entity, keys == null ? null : new HashSet<>(keys), options, new HashSet<>());
+        return options;
+    }
+
+    private void collectOptions(PermissionEntity entity, @Nullable Set<String> keys, Map<String, String> options, Set<String> visited) {
+        if (!visited.add(entity.getIdentifier()) || (keys != null && options.size() == keys.size())) {
+            return;
+        }
+        for (Map.Entry<String, String> option : entity.getOptions(null).entrySet()) {
+            if (keys == null || keys.contains(option.getKey())) {
+                options.putIfAbsent(option.getKey(), option.getValue());
             }
         }
-
-        return nodes;
+        for (PermissionGroup parent : entity.getParents(null)) {
+            collectOptions(parent, keys, options, visited);
+        }
     }
 
     private Collection<GroupMembership> getGroupMemberships(PermissionEntity entity) {
@@ -449,19 +614,7 @@ public class PermissionsExPermissionService extends AbstractPermissionService<Pe
 
             for (PermissionGroup parent : worldData.getValue()) {
                 String parentName = parent.getName();
-                long expiry = 0L;
-
-                // check for temporary parent
-                if (entity instanceof PermissionUser) {
-                    String expiryOption = entity.getOption("group-" + parentName + "-until", world);
-                    if (expiryOption != null) {
-                        try {
-                            expiry = Long.parseLong(expiryOption);
-                        } catch (NumberFormatException e) {
-                            // ignore
-                        }
-                    }
-                }
+                long expiry = getParentExpiry(entity, parentName, world);
 
                 SimpleGroupMembership.Builder builder = buildGroupMembership(parent);
                 if (world != null) {
@@ -475,4 +628,142 @@ public class PermissionsExPermissionService extends AbstractPermissionService<Pe
         }
         return memberships;
     }
+
+    private static long getParentExpiry(PermissionEntity entity, String parentName, String world) {
+        // only users have temporary parents
+        if (!(entity instanceof PermissionUser)) {
+            return 0L;
+        }
+
+        String expiryOption = entity.getOption("group-" + parentName + "-until", world);
+        if (expiryOption != null) {
+            try {
+                return Long.parseLong(expiryOption);
+            } catch (NumberFormatException e) {
+                // ignore
+            }
+        }
+        return 0L;
+    }
+
+    private static @Nullable Instant getNextExpiry(PermissionEntity entity) {
+        long next = getNextExpiry(entity, System.currentTimeMillis() / 1000L, Long.MAX_VALUE, new HashSet<>());
+        return next == Long.MAX_VALUE ? null : Instant.ofEpochSecond(next);
+    }
+
+    // walks the raw timed permission times and temporary parents of the entity and
+    // everything it inherits from, since PEX resolves inherited entries in its checks
+    private static long getNextExpiry(PermissionEntity entity, long now, long next, Set<String> visited) {
+        if (!visited.add(entity.getIdentifier())) {
+            return next;
+        }
+
+        Map<String, Long> timedPermissionsTime;
+        try {
+            timedPermissionsTime = (Map<String, Long>) TIMED_PERMISSIONS_TIME_FIELD.invokeExact(entity);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+
+        for (Long time : timedPermissionsTime.values()) {
+            if (time != null && time > now && time < next) {
+                next = time;
+            }
+        }
+
+        for (Map.Entry<String, List<PermissionGroup>> worldData : entity.getAllParents().entrySet()) {
+            for (PermissionGroup parent : worldData.getValue()) {
+                long expiry = getParentExpiry(entity, parent.getName(), worldData.getKey());
+                if (expiry > now && expiry < next) {
+                    next = expiry;
+                }
+                next = getNextExpiry(parent, now, next, visited);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * An immutable snapshot of the loaded groups, indexed by lower case name.
+     */
+    private static final class GroupIndex {
+        private final List<PermissionGroup> groups;
+        private final Map<String, PermissionGroup> byName;
+        private final long version;
+
+        GroupIndex(Collection<PermissionGroup> groups, long version) {
+            this.version = version;
+            this.groups = Collections.unmodifiableList(new ArrayList<>(groups));
+            this.byName = new HashMap<>(groups.size() * 2);
+            for (PermissionGroup group : this.groups) {
+                this.byName.put(group.getName().toLowerCase(Locale.ROOT), group);
+            }
+        }
+    }
+
+    /**
+     * Invalidates cached data when PermissionsEx data is changed externally,
+     * or when a player joins or moves to a world which may have different
+     * permissions, and unloads users when they quit.
+     */
+    private final class PermissionsExListener implements Listener {
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onEntityChange(PermissionEntityEvent e) {
+            PermissionEntity entity = e.getEntity();
+            if (entity instanceof PermissionUser) {
+                invalidateUser((PermissionUser) entity);
+            } else if (entity instanceof PermissionGroup) {
+                // PEX has no rename, and fires SAVED when a new group is first
+                // saved. other actions leave the set of groups unchanged.
+                if (e.getAction() == PermissionEntityEvent.Action.SAVED || e.getAction() == PermissionEntityEvent.Action.REMOVED) {
+                    invalidateGroupIndex();
+                }
+
+                PermissionGroup group = (PermissionGroup) entity;
+                switch (e.getAction()) {
+                    // the groups parents, or the order they are inherited in
+                    // (which follows weight), may have changed
+                    case INHERITANCE_CHANGED:
+                    case WEIGHT_CHANGED:
+                    case REMOVED:
+                        invalidateGroup(group);
+                        break;
+                    case DEFAULTGROUP_CHANGED:
+                        // users without groups of their own inherit the default
+                        invalidateAll();
+                        break;
+                    default:
+                        invalidateGroupData(group);
+                        break;
+                }
+            } else {
+                invalidateGroupIndex();
+                invalidateAll();
+            }
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onSystemChange(PermissionSystemEvent e) {
+            invalidateGroupIndex();
+            invalidateAll();
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onWorldChange(PlayerChangedWorldEvent e) {
+            invalidateUser(getUser(e.getPlayer()));
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onJoin(PlayerJoinEvent e) {
+            invalidateUser(e.getPlayer().getUniqueId());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onQuit(PlayerQuitEvent e) {
+            unloadUser(e.getPlayer().getUniqueId());
+        }
+    }
 }
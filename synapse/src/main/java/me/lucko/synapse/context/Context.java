@@ -34,6 +34,16 @@ import java.util.Objects;
  */
 public interface Context {
 
+    /**
+     * The key of the context holding the name of the world a player is in.
+     */
+    String WORLD_KEY = "world";
+
+    /**
+     * The key of the context holding the name of the server a player is on.
+     */
+    String SERVER_KEY = "server";
+
     /**
      * Creates a new {@link Context}.
      *
@@ -30,10 +30,12 @@ import org.checkerframework.checker.nullness.qual.NonNull;
 final class ContextImpl implements Context {
     private final String key;
     private final String value;
+    private final int hashCode;
 
     ContextImpl(String key, String value) {
         this.key = key;
         this.value = value;
+        this.hashCode = key.hashCode() ^ value.hashCode();
     }
 
     @Override
@@ -55,12 +57,12 @@ final class ContextImpl implements Context {
     public boolean equals(Object o) {
         if (this == o) return true;
         if (!(o instanceof Context)) return false;
-        Context that = (ContextImpl) o;
+        Context that = (Context) o;
         return this.key.equals(that.key()) && this.value.equals(that.value());
     }
 
     @Override
     public int hashCode() {
-        return this.key.hashCode() ^ this.value.hashCode();
+        return this.hashCode;
     }
 }
@@ -60,4 +60,18 @@ public interface ContextService {
      */
     @NonNull Set<Context> queryContexts(@NonNull Player player);
 
+    /**
+     * Signals that the contexts for the given player may have changed, and
+     * should be calculated again the next time they are queried.
+     *
+     * <p>Calculators should call this method when a value they provide
+     * changes for reasons the service cannot observe itself. Implementations
+     * which do not cache contexts may ignore it.</p>
+     *
+     * @param player the player
+     */
+    default void refreshContexts(@NonNull Player player) {
+        // contexts are not cached by default
+    }
+
 }
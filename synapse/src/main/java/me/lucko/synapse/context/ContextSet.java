@@ -0,0 +1,101 @@
+/*
+ * This file is part of synapse, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.synapse.context;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * An immutable set of {@link Context}s.
+ *
+ * <p>Instances are interned, and cache their hash code, so they can be used
+ * cheaply as map keys and compared against each other.</p>
+ */
+public interface ContextSet extends Set<Context> {
+
+    /**
+     * Gets an empty {@link ContextSet}.
+     *
+     * @return an empty context set
+     */
+    static @NonNull ContextSet empty() {
+        return ContextSetImpl.EMPTY;
+    }
+
+    /**
+     * Gets a {@link ContextSet} containing the given contexts.
+     *
+     * @param contexts the contexts
+     * @return a context set
+     */
+    static @NonNull ContextSet of(@NonNull Context... contexts) {
+        return of(Arrays.asList(contexts));
+    }
+
+    /**
+     * Gets a {@link ContextSet} containing the given contexts.
+     *
+     * <p>If the given collection is already a {@link ContextSet}, it is
+     * returned as is.</p>
+     *
+     * @param contexts the contexts
+     * @return a context set
+     */
+    static @NonNull ContextSet of(@NonNull Collection<? extends Context> contexts) {
+        if (contexts instanceof ContextSet) {
+            return (ContextSet) contexts;
+        }
+        return ContextSetImpl.of(contexts);
+    }
+
+    /**
+     * Gets if every context in this set is also present in the given set.
+     *
+     * <p>This is the check used to determine whether a setting which
+     * requires this set of contexts applies to a subject in the given
+     * contexts.</p>
+     *
+     * @param contexts the contexts to check against
+     * @return true if this set is satisfied by the given contexts
+     */
+    boolean isSatisfiedBy(@NonNull ContextSet contexts);
+
+    /**
+     * Gets a value of the context with the given key.
+     *
+     * <p>If the set contains more than one context with the key, the value
+     * which sorts first is returned.</p>
+     *
+     * @param key the key
+     * @return a value, or null if the set has no context with the key
+     */
+    @Nullable String getValue(@NonNull String key);
+
+}
@@ -0,0 +1,248 @@
+/*
+ * This file is part of synapse, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.synapse.context;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+final class ContextSetImpl extends AbstractSet<Context> implements ContextSet {
+    private static final Comparator<Context> ORDER = Comparator.comparing(Context::key).thenComparing(Context::value);
+
+    // interned instances, weakly referenced so unused sets can be collected.
+    // keyed by the contents rather than the set, so the key doesn't keep the
+    // set alive. entries are removed as their sets are collected.
+    private static final ConcurrentMap<Key, InternedReference> INTERNED = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<ContextSetImpl> COLLECTED = new ReferenceQueue<>();
+
+    static final ContextSetImpl EMPTY = intern(new ContextSetImpl(new Context[0]));
+
+    static ContextSetImpl of(Collection<? extends Context> contexts) {
+        if (contexts.isEmpty()) {
+            return EMPTY;
+        }
+
+        Context[] array = contexts.toArray(new Context[0]);
+        for (Context context : array) {
+            Objects.requireNonNull(context, "context");
+        }
+        Arrays.sort(array, ORDER);
+
+        // remove duplicates
+        int size = 1;
+        for (int i = 1; i < array.length; i++) {
+            if (!array[i].equals(array[size - 1])) {
+                array[size++] = array[i];
+            }
+        }
+        if (size != array.length) {
+            array = Arrays.copyOf(array, size);
+        }
+        return intern(new ContextSetImpl(array));
+    }
+
+    private static ContextSetImpl intern(ContextSetImpl set) {
+        Reference<? extends ContextSetImpl> collected;
+        while ((collected = COLLECTED.poll()) != null) {
+            InternedReference ref = (InternedReference) collected;
+            INTERNED.remove(ref.key, ref);
+        }
+
+        Key key = new Key(set.contexts, set.hashCode);
+        while (true) {
+            InternedReference ref = INTERNED.get(key);
+            ContextSetImpl interned = ref == null ? null : ref.get();
+            if (interned != null) {
+                return interned;
+            }
+
+            InternedReference created = new InternedReference(set, key);
+            if (ref == null ? INTERNED.putIfAbsent(key, created) == null : INTERNED.replace(key, ref, created)) {
+                return set;
+            }
+        }
+    }
+
+    // sorted by key, then value
+    private final Context[] contexts;
+    private final int hashCode;
+
+    private ContextSetImpl(Context[] contexts) {
+        this.contexts = contexts;
+        int hashCode = 0;
+        for (Context context : contexts) {
+            hashCode += context.hashCode();
+        }
+        this.hashCode = hashCode;
+    }
+
+    @Override
+    public int size() {
+        return this.contexts.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.contexts.length == 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof Context)) return false;
+        return Arrays.binarySearch(this.contexts, (Context) o, ORDER) >= 0;
+    }
+
+    @Override
+    public boolean isSatisfiedBy(@NonNull ContextSet contexts) {
+        if (this.contexts.length == 0 || this == contexts) {
+            return true;
+        }
+        if (!(contexts instanceof ContextSetImpl)) {
+            return contexts.containsAll(this);
+        }
+
+        // both arrays are sorted, so walk them together
+        Context[] other = ((ContextSetImpl) contexts).contexts;
+        if (other.length < this.contexts.length) {
+            return false;
+        }
+        int j = 0;
+        for (Context context : this.contexts) {
+            while (j < other.length && ORDER.compare(other[j], context) < 0) {
+                j++;
+            }
+            if (j == other.length || !other[j].equals(context)) {
+                return false;
+            }
+            j++;
+        }
+        return true;
+    }
+
+    @Override
+    public @Nullable String getValue(@NonNull String key) {
+        int low = 0;
+        int high = this.contexts.length - 1;
+        String value = null;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = this.contexts[mid].key().compareTo(key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else {
+                if (cmp == 0) {
+                    value = this.contexts[mid].value();
+                }
+                high = mid - 1;
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public @NonNull Iterator<Context> iterator() {
+        return new Iterator<Context>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return this.index < ContextSetImpl.this.contexts.length;
+            }
+
+            @Override
+            public Context next() {
+                if (this.index >= ContextSetImpl.this.contexts.length) {
+                    throw new NoSuchElementException();
+                }
+                return ContextSetImpl.this.contexts[this.index++];
+            }
+        };
+    }
+
+    @Override
+    public Object[] toArray() {
+        return this.contexts.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o instanceof ContextSetImpl) {
+            ContextSetImpl that = (ContextSetImpl) o;
+            return this.hashCode == that.hashCode && Arrays.equals(this.contexts, that.contexts);
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+
+    private static final class Key {
+        private final Context[] contexts;
+        private final int hashCode;
+
+        Key(Context[] contexts, int hashCode) {
+            this.contexts = contexts;
+            this.hashCode = hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return this.hashCode == that.hashCode && Arrays.equals(this.contexts, that.contexts);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+    }
+
+    private static final class InternedReference extends WeakReference<ContextSetImpl> {
+        private final Key key;
+
+        InternedReference(ContextSetImpl set, Key key) {
+            super(set, COLLECTED);
+            this.key = key;
+        }
+    }
+}
@@ -38,6 +38,7 @@ import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.util.Collection;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -93,6 +94,22 @@ public interface PermissionService extends GenericService {
          * @return the future result encapsulating the request
          */
         @NonNull FutureResult<User> load(@NonNull UUID uniqueId);
+
+        /**
+         * Makes a request to load several users at once, and then passes the
+         * results of the lookup to the given {@link FutureResult}.
+         *
+         * <p>The resulting map is keyed by unique id. Users which could not be
+         * retrieved are omitted from the map.</p>
+         *
+         * <p>Permission plugins may be able to fetch the users in a single
+         * database query, so this method should be preferred over calling
+         * {@link #load(UUID)} repeatedly.</p>
+         *
+         * @param uniqueIds the unique ids of the players to lookup
+         * @return the future result encapsulating the request
+         */
+        @NonNull FutureResult<Map<UUID, User>> loadAll(@NonNull Collection<UUID> uniqueIds);
     }
 
     /**
@@ -136,6 +153,24 @@ public interface PermissionService extends GenericService {
         @NonNull FutureResult<Group> load(@NonNull String name);
     }
 
+    /**
+     * Gets the online users who have the given permission.
+     *
+     * <p>The service keeps track of the users who have each permission passed
+     * to this method, and only checks a player again when their data changes,
+     * or when they join or quit. This is much cheaper than checking every
+     * online player each time, so should be preferred when repeatedly
+     * looking up the same audience, e.g. for staff broadcasts.</p>
+     *
+     * <p>The returned collection is immutable and will not update live.</p>
+     *
+     * <p>This method must be called from the server thread.</p>
+     *
+     * @param permission the permission
+     * @return the online users who have the permission
+     */
+    @NonNull Collection<User> onlineWithPermission(@NonNull String permission);
+
     /**
      * Gets if the service supports the property in the given scope.
      *
@@ -0,0 +1,86 @@
+/*
+ * This file is part of synapse, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.synapse.permission.node;
+
+import me.lucko.synapse.permission.subject.PermissionSubject;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A pre-parsed handle for a permission string, which can be passed to
+ * {@link PermissionSubject#checkPermission(PermissionKey)}.
+ *
+ * <p>Keys are normalised to lower case, and are interned: calling
+ * {@link #of(String)} twice with the same permission returns the same
+ * instance. Each key is assigned a small, unique {@link #getId() id}, which
+ * implementations can use to look up cached results without hashing the
+ * permission string.</p>
+ *
+ * <p>Keys are retained for the lifetime of the server, so they should be
+ * created for fixed permission strings (ideally stored in a
+ * {@code static final} field), not for arbitrary input.</p>
+ */
+public interface PermissionKey {
+
+    /**
+     * Gets the {@link PermissionKey} for the given permission.
+     *
+     * @param permission the permission
+     * @return the key
+     */
+    static @NonNull PermissionKey of(@NonNull String permission) {
+        Objects.requireNonNull(permission, "permission");
+        return PermissionKeyImpl.of(permission);
+    }
+
+    /**
+     * Gets the permission string, in lower case.
+     *
+     * @return the permission string
+     */
+    @NonNull String getPermission();
+
+    /**
+     * Gets the segments of the permission string, split on {@code '.'}.
+     *
+     * @return the segments
+     */
+    @NonNull List<String> getSegments();
+
+    /**
+     * Gets the unique id of this key.
+     *
+     * <p>Ids are assigned sequentially from zero, in the order keys are
+     * created.</p>
+     *
+     * @return the id
+     */
+    int getId();
+
+}
@@ -0,0 +1,91 @@
+/*
+ * This file is part of synapse, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.synapse.permission.node;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class PermissionKeyImpl implements PermissionKey {
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    // keyed by the normalised permission
+    private static final Map<String, PermissionKeyImpl> KEYS = new ConcurrentHashMap<>();
+    // keyed by the permission as passed to #of, to avoid normalising on each lookup
+    private static final Map<String, PermissionKeyImpl> LOOKUP = new ConcurrentHashMap<>();
+
+    static PermissionKeyImpl of(String permission) {
+        PermissionKeyImpl key = LOOKUP.get(permission);
+        if (key == null) {
+            key = KEYS.computeIfAbsent(permission.toLowerCase(Locale.ROOT), PermissionKeyImpl::new);
+            LOOKUP.putIfAbsent(permission, key);
+        }
+        return key;
+    }
+
+    private final String permission;
+    private final List<String> segments;
+    private final int id;
+
+    private PermissionKeyImpl(String permission) {
+        this.permission = permission;
+        this.segments = Collections.unmodifiableList(Arrays.asList(permission.split("\\.", -1)));
+        this.id = NEXT_ID.getAndIncrement();
+    }
+
+    @Override
+    public @NonNull String getPermission() {
+        return this.permission;
+    }
+
+    @Override
+    public @NonNull List<String> getSegments() {
+        return this.segments;
+    }
+
+    @Override
+    public int getId() {
+        return this.id;
+    }
+
+    @Override
+    public String toString() {
+        return this.permission;
+    }
+
+    // keys are interned, so use system equality for #equals
+
+    @Override
+    public int hashCode() {
+        return this.id;
+    }
+}
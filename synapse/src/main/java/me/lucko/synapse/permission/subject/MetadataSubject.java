@@ -32,6 +32,12 @@ import org.bukkit.plugin.Plugin;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.function.Consumer;
 
 /**
@@ -70,6 +76,174 @@ public interface MetadataSubject {
      */
     @Nullable String getMetadata(@NonNull String key);
 
+    /**
+     * Gets the meta values corresponding to the given keys for the subject.
+     *
+     * <p>The result is the same as calling {@link #getMetadata(String)} for
+     * each key, however implementations may resolve all of the keys at once,
+     * so this method should be preferred when reading several values.</p>
+     *
+     * <p>The returned map is immutable, and contains no entries for keys
+     * which have no value.</p>
+     *
+     * @param keys the keys
+     * @return the values for the keys
+     */
+    default @NonNull Map<String, String> getMetadata(@NonNull Collection<String> keys) {
+        Map<String, String> values = new HashMap<>();
+        for (String key : keys) {
+            String value = getMetadata(key);
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * Gets all of the meta values for the subject.
+     *
+     * <p>If the permission plugin supports it, this method should account for
+     * inherited data too.</p>
+     *
+     * <p>The returned map is immutable and will not update live.</p>
+     *
+     * @return the meta values
+     */
+    @NonNull Map<String, String> getAllMetadata();
+
+    /**
+     * Gets the meta value corresponding to the given key for the subject,
+     * parsed as an integer.
+     *
+     * <p>Implementations may cache the parsed value, so this method should
+     * be preferred over parsing the result of {@link #getMetadata(String)}
+     * when reading a value repeatedly.</p>
+     *
+     * @param key the key
+     * @param defaultValue the value to return if there is no value for the
+     *                     key, or it is not a valid integer
+     * @return the value for the key
+     */
+    default int getMetadataInt(@NonNull String key, int defaultValue) {
+        String value = getMetadata(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Gets the meta value corresponding to the given key for the subject,
+     * parsed as a long.
+     *
+     * <p>Implementations may cache the parsed value, so this method should
+     * be preferred over parsing the result of {@link #getMetadata(String)}
+     * when reading a value repeatedly.</p>
+     *
+     * @param key the key
+     * @param defaultValue the value to return if there is no value for the
+     *                     key, or it is not a valid long
+     * @return the value for the key
+     */
+    default long getMetadataLong(@NonNull String key, long defaultValue) {
+        String value = getMetadata(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Gets the meta value corresponding to the given key for the subject,
+     * parsed as a double.
+     *
+     * <p>Implementations may cache the parsed value, so this method should
+     * be preferred over parsing the result of {@link #getMetadata(String)}
+     * when reading a value repeatedly.</p>
+     *
+     * @param key the key
+     * @param defaultValue the value to return if there is no value for the
+     *                     key, or it is not a valid number
+     * @return the value for the key
+     */
+    default double getMetadataDouble(@NonNull String key, double defaultValue) {
+        String value = getMetadata(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Gets the meta value corresponding to the given key for the subject,
+     * parsed as a boolean.
+     *
+     * <p>Only the values {@code true} and {@code false} (ignoring case) are
+     * recognised.</p>
+     *
+     * @param key the key
+     * @param defaultValue the value to return if there is no value for the
+     *                     key, or it is not a valid boolean
+     * @return the value for the key
+     */
+    default boolean getMetadataBoolean(@NonNull String key, boolean defaultValue) {
+        String value = getMetadata(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        value = value.trim();
+        if (value.equalsIgnoreCase("true")) {
+            return true;
+        } else if (value.equalsIgnoreCase("false")) {
+            return false;
+        } else {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Gets the meta value corresponding to the given key for the subject,
+     * parsed as a duration.
+     *
+     * <p>Whole numbers are read as a number of seconds. Other values are
+     * parsed using the ISO-8601 format accepted by
+     * {@link Duration#parse(CharSequence)}, e.g. {@code PT5M}.</p>
+     *
+     * @param key the key
+     * @return the value for the key, or null if there is no value for the
+     *         key, or it is not a valid duration
+     */
+    default @Nullable Duration getMetadataDuration(@NonNull String key) {
+        String value = getMetadata(key);
+        if (value == null) {
+            return null;
+        }
+        value = value.trim();
+        try {
+            return Duration.ofSeconds(Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            // not a number of seconds
+        }
+        try {
+            return Duration.parse(value);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
     /**
      * Sets a prefix for the subject.
      *
@@ -0,0 +1,174 @@
+/*
+ * This file is part of synapse, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.synapse.permission.subject;
+
+import me.lucko.synapse.permission.membership.GroupMembership;
+import me.lucko.synapse.permission.node.PermissionNode;
+import me.lucko.synapse.permission.property.PropertyBuilder;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.function.Consumer;
+
+/**
+ * A set of changes to be applied to a subject together.
+ *
+ * <p>Changes are applied in the order they are added to the batch, when the
+ * consumer passed to {@link PermissionSubject#batch(Consumer)} returns. If a
+ * change fails, the changes before it remain applied.</p>
+ *
+ * <p>Each method behaves in the same way as its equivalent in
+ * {@link PermissionSubject} or {@link MetadataSubject}.</p>
+ */
+public interface MutationBatch {
+
+    /**
+     * Sets a permission for the subject.
+     *
+     * @param permission the permission
+     * @return this batch
+     * @see PermissionSubject#setPermission(String)
+     */
+    default @NonNull MutationBatch setPermission(@NonNull String permission) {
+        return this.setPermission(permission, props -> {});
+    }
+
+    /**
+     * Sets a permission for the subject with extra properties.
+     *
+     * @param permission the permission
+     * @param properties the properties to set the permission with
+     * @return this batch
+     * @see PermissionSubject#setPermission(String, Consumer)
+     */
+    @NonNull MutationBatch setPermission(@NonNull String permission, @NonNull Consumer<PropertyBuilder> properties);
+
+    /**
+     * Unsets a permission for the subject.
+     *
+     * @param permission the permission
+     * @return this batch
+     * @see PermissionSubject#unsetPermission(PermissionNode)
+     */
+    @NonNull MutationBatch unsetPermission(@NonNull PermissionNode permission);
+
+    /**
+     * Adds a group to the subject.
+     *
+     * @param group the group
+     * @return this batch
+     * @see PermissionSubject#addGroup(Group)
+     */
+    default @NonNull MutationBatch addGroup(@NonNull Group group) {
+        return this.addGroup(group, props -> {});
+    }
+
+    /**
+     * Adds a group to the subject with extra properties.
+     *
+     * @param group the group
+     * @param properties the properties to add the group with
+     * @return this batch
+     * @see PermissionSubject#addGroup(Group, Consumer)
+     */
+    @NonNull MutationBatch addGroup(@NonNull Group group, @NonNull Consumer<PropertyBuilder> properties);
+
+    /**
+     * Removes a group from the subject.
+     *
+     * @param group the group
+     * @return this batch
+     * @see PermissionSubject#removeGroup(GroupMembership)
+     */
+    @NonNull MutationBatch removeGroup(@NonNull GroupMembership group);
+
+    /**
+     * Sets a prefix for the subject.
+     *
+     * @param prefix the prefix to set, or null to remove any current prefix
+     * @return this batch
+     * @see MetadataSubject#setPrefix(String)
+     */
+    default @NonNull MutationBatch setPrefix(@Nullable String prefix) {
+        return this.setPrefix(prefix, props -> {});
+    }
+
+    /**
+     * Sets a prefix for the subject with extra properties.
+     *
+     * @param prefix the prefix to set, or null to remove any current prefix
+     * @param properties the properties to set the prefix with
+     * @return this batch
+     * @see MetadataSubject#setPrefix(String, Consumer)
+     */
+    @NonNull MutationBatch setPrefix(@Nullable String prefix, @NonNull Consumer<PropertyBuilder> properties);
+
+    /**
+     * Sets a suffix for the subject.
+     *
+     * @param suffix the suffix to set, or null to remove any current suffix
+     * @return this batch
+     * @see MetadataSubject#setSuffix(String)
+     */
+    default @NonNull MutationBatch setSuffix(@Nullable String suffix) {
+        return this.setSuffix(suffix, props -> {});
+    }
+
+    /**
+     * Sets a suffix for the subject with extra properties.
+     *
+     * @param suffix the suffix to set, or null to remove any current suffix
+     * @param properties the properties to set the suffix with
+     * @return this batch
+     * @see MetadataSubject#setSuffix(String, Consumer)
+     */
+    @NonNull MutationBatch setSuffix(@Nullable String suffix, @NonNull Consumer<PropertyBuilder> properties);
+
+    /**
+     * Sets a metadata value for the subject.
+     *
+     * @param key the metadata key
+     * @param value the value
+     * @return this batch
+     * @see MetadataSubject#setMetadata(String, String)
+     */
+    default @NonNull MutationBatch setMetadata(@NonNull String key, @Nullable String value) {
+        return this.setMetadata(key, value, props -> {});
+    }
+
+    /**
+     * Sets a metadata value for the subject with extra properties.
+     *
+     * @param key the metadata key
+     * @param value the value
+     * @param properties the properties to set the value with
+     * @return this batch
+     * @see MetadataSubject#setMetadata(String, String, Consumer)
+     */
+    @NonNull MutationBatch setMetadata(@NonNull String key, @Nullable String value, @NonNull Consumer<PropertyBuilder> properties);
+
+}
@@ -25,7 +25,9 @@
 
 package me.lucko.synapse.permission.subject;
 
+import me.lucko.synapse.context.Context;
 import me.lucko.synapse.permission.membership.GroupMembership;
+import me.lucko.synapse.permission.node.PermissionKey;
 import me.lucko.synapse.permission.node.PermissionNode;
 import me.lucko.synapse.permission.property.PropertyBuilder;
 import me.lucko.synapse.util.FutureAction;
@@ -33,8 +35,13 @@ import me.lucko.synapse.util.FutureAction;
 import org.bukkit.permissions.Permissible;
 import org.bukkit.plugin.Plugin;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.List;
+import java.util.Set;
 import java.util.function.Consumer;
 
 /**
@@ -66,6 +73,38 @@ public interface PermissionSubject {
      */
     @NonNull Collection<GroupMembership> getGroups();
 
+    /**
+     * Gets all of the groups this subject inherits from, in the subjects
+     * current world.
+     *
+     * <p>Unlike {@link #getGroups()}, the result of this method includes the
+     * groups inherited indirectly through other groups. Groups are ordered by
+     * precedence, and each group appears only once.</p>
+     *
+     * <p>For users, the current world is the world the player is in, if
+     * they are online. Groups have no current world, so only memberships
+     * which apply in every world are followed.</p>
+     *
+     * <p>The returned list is immutable and will not update live.</p>
+     *
+     * @return the groups this subject inherits from
+     */
+    @NonNull List<Group> getInheritedGroups();
+
+    /**
+     * Gets all of the groups this subject inherits from in the given world.
+     *
+     * <p>The result is the same as {@link #getInheritedGroups()}, except
+     * memberships are followed as if the subject were in the given world.</p>
+     *
+     * <p>The returned list is immutable and will not update live.</p>
+     *
+     * @param world the world, or null to only follow memberships which
+     *              apply in every world
+     * @return the groups this subject inherits from
+     */
+    @NonNull List<Group> getInheritedGroups(@Nullable String world);
+
     /**
      * Runs a permission check on the subject.
      *
@@ -81,6 +120,76 @@ public interface PermissionSubject {
      */
     boolean checkPermission(@NonNull String permission);
 
+    /**
+     * Runs a permission check on the subject.
+     *
+     * <p>The result is the same as calling {@link #checkPermission(String)},
+     * however implementations are able to use the pre-parsed key to answer
+     * repeated checks more efficiently.</p>
+     *
+     * @param permission the permission
+     * @return the result of the check
+     */
+    default boolean checkPermission(@NonNull PermissionKey permission) {
+        return checkPermission(permission.getPermission());
+    }
+
+    /**
+     * Runs a permission check on the subject, as if the subject were in the
+     * given contexts.
+     *
+     * <p>Settings which require a world, server or set of contexts only
+     * apply if the given contexts satisfy them. The world and server are
+     * read from the {@link Context#WORLD_KEY} and {@link Context#SERVER_KEY}
+     * contexts; if either is missing, only settings which apply in every
+     * world or server are considered.</p>
+     *
+     * <p>This allows checking what a player could do somewhere other than
+     * where they currently are.</p>
+     *
+     * @param permission the permission
+     * @param contexts the contexts to check in
+     * @return the result of the check
+     */
+    boolean checkPermission(@NonNull String permission, @NonNull Set<Context> contexts);
+
+    /**
+     * Runs a permission check on the subject for each of the given permissions.
+     *
+     * <p>The bit at index {@code i} of the returned {@link BitSet} is set if
+     * the subject has the permission at index {@code i}. The result of each
+     * check is the same as calling {@link #checkPermission(String)}.</p>
+     *
+     * <p>Implementations may resolve the subjects data once for the whole
+     * batch, so this method should be preferred when checking many
+     * permissions at once.</p>
+     *
+     * @param permissions the permissions
+     * @return the results of the checks
+     */
+    default @NonNull BitSet checkPermissions(@NonNull List<String> permissions) {
+        BitSet results = new BitSet(permissions.size());
+        for (int i = 0; i < permissions.size(); i++) {
+            if (checkPermission(permissions.get(i))) {
+                results.set(i);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Runs a permission check on the subject for each of the given permissions.
+     *
+     * <p>Calling this method is equivalent to calling
+     * {@link #checkPermissions(List)}.</p>
+     *
+     * @param permissions the permissions
+     * @return the results of the checks
+     */
+    default @NonNull BitSet checkPermissions(@NonNull String... permissions) {
+        return checkPermissions(Arrays.asList(permissions));
+    }
+
     /**
      * Sets a permission for the subject.
      *
@@ -173,4 +282,22 @@ public interface PermissionSubject {
      */
     @NonNull FutureAction removeGroup(@NonNull GroupMembership group);
 
+    /**
+     * Applies a batch of changes to the subject.
+     *
+     * <p>Changes made in a batch are passed to the permission plugin
+     * together, allowing it to persist them all at once. This should be
+     * preferred over calling the individual methods when making several
+     * changes at a time.</p>
+     *
+     * <p>The result of this action may not apply immediately, and the change
+     * may be applied asynchronously. If you want to wait until the action has
+     * been fully applied, pass a callback using
+     * {@link FutureAction#whenComplete(Plugin, Runnable)}.</p>
+     *
+     * @param mutations a consumer which adds changes to the batch
+     * @return a future result
+     */
+    @NonNull FutureAction batch(@NonNull Consumer<MutationBatch> mutations);
+
 }